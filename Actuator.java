@@ -6,11 +6,13 @@ import java.io.*;
 class Actuator implements Runnable {
 
     Physics physics;
-    private ObjectInputStream in;
+    private Transport transport;
+    private Frame frame;
 
-    Actuator(Physics phy, ObjectInputStream in) {
+    Actuator(Physics phy, Transport transport) {
         this.physics = phy;
-        this.in = in;
+        this.transport = transport;
+        this.frame = new Frame(phy.NUM_POLES);
     }
 
     void init() {
@@ -25,10 +27,37 @@ class Actuator implements Runnable {
         while (true) {
             try {
               // read action data from control server  
-              Object obj = in.readObject();
-              double[] data = (double[]) (obj);
-              assert(data.length == physics.NUM_POLES);
-              physics.update_actions(data);
+              transport.receive(frame);
+              if (frame.type == Frame.BYE) {
+                break;
+              }
+              long received = System.nanoTime();
+              // only actions newer than the applied ones, the server may
+              // answer the sensor frames in flight out of order
+              if (frame.type == Frame.ACTION) {
+                assert(frame.poles == physics.NUM_POLES);
+                physics.update_actions(frame.values, frame.seq);
+              } else if (frame.type == Frame.ACTION_DELTA) {
+                // {pole id, action} for the poles the sensor sent
+                physics.update_action_pairs(frame.values, frame.poles, frame.seq);
+              } else {
+                continue;
+              }
+              if (Recorder.ENABLED) {
+                Recorder.frame(Recorder.CLIENT, 0, frame.type, frame.values, frame.poles, frame.seq);
+              }
+              if (frame.seq != 0) {
+                long applied = System.nanoTime();
+                LatencyStats.record_client(frame.stamps, received, applied);
+                Metrics.ACTUATOR_FRAMES.increment();
+                Metrics.ACTUATOR_LAG_NANOS.add(applied - frame.stamps[Frame.SAMPLED]);
+              }
+            } catch (EOFException e) {
+                break;
+            } catch (InterruptedIOException e) {
+                // no actions within the timeout of a datagram transport,
+                // the current ones still apply
+                continue;
             } catch (Exception e) {
                 e.printStackTrace();
             }
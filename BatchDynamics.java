@@ -0,0 +1,80 @@
+/**
+ * This class steps a range of poles with explicit Euler in one tight loop
+ * over the PendulumStore columns. It computes exactly what
+ * Physics.update_pendulum does with Integrator.EULER, without the per-pole
+ * scratch arrays and virtual calls, and is the scalar fallback of the
+ * Vector API kernel in simd/VectorDynamics.java.
+ */
+class BatchDynamics implements BatchKernel {
+
+    /**
+     * Return the Vector API kernel if it has been compiled (make simd) and
+     * the jdk.incubator.vector module is available, else the scalar kernel.
+     */
+    static BatchKernel best() {
+        try {
+            return (BatchKernel) Class.forName("VectorDynamics").getDeclaredConstructor().newInstance();
+        } catch (Throwable t) {
+            return new BatchDynamics();
+        }
+    }
+
+    public int step(PendulumStore st, double tau, double trackLimit, int lo, int hi) {
+        PoleParams p = st.params;
+        double[] pos = st.pos, posDot = st.posDot, angle = st.angle, angleDot = st.angleDot;
+        double[] prevAngle = st.prevAngle, angleDDot = st.angleDDot, posDDot = st.posDDot;
+        double[] action = st.action;
+        byte[] state = st.state;
+        double halfWidth = p.cartWidth / 2;
+
+        int failed = 0;
+        for (int i = lo; i < hi; i++) {
+            if (state[i] != PendulumStore.NORMAL) {
+                failed++;
+                continue;
+            }
+            double a = angle[i], ad = angleDot[i], x = pos[i], xd = posDot[i];
+            double force = p.forceMag * action[i];
+            double sinangle = Math.sin(a);
+            double cosangle = Math.cos(a);
+            double common = (force + p.poleMassLength * ad * ad * sinangle
+                    - p.fricCart * (xd < 0 ? -1 : 1)) / p.totalMass;
+            double add = (9.8 * sinangle - cosangle * common
+                    - p.fricPole * ad / p.poleMassLength)
+                    / (p.halfPole * (p.fourthirds - p.poleMass * cosangle * cosangle
+                    / p.totalMass));
+            double xdd = common - p.poleMassLength * add * cosangle / p.totalMass;
+
+            angleDDot[i] = add;
+            posDDot[i] = xdd;
+            prevAngle[i] = a;
+            x += xd * tau;
+            xd += xdd * tau;
+            a += ad * tau;
+            ad += add * tau;
+
+            byte s = PendulumStore.NORMAL;
+            if (a * 180 / Math.PI > 90.0 || a * 180 / Math.PI < -90.0) {
+                a = a > 0 ? Math.PI / 2 : -Math.PI / 2;
+                s = PendulumStore.FAILED;
+            }
+            if (x + halfWidth > trackLimit) {
+                x = trackLimit - halfWidth;
+                s = PendulumStore.FAILED;
+            }
+            if (x - halfWidth < -trackLimit) {
+                x = -trackLimit + halfWidth;
+                s = PendulumStore.FAILED;
+            }
+            pos[i] = x;
+            posDot[i] = xd;
+            angle[i] = a;
+            angleDot[i] = ad;
+            state[i] = s;
+            if (s != PendulumStore.NORMAL) {
+                failed++;
+            }
+        }
+        return failed;
+    }
+}
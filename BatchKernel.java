@@ -0,0 +1,12 @@
+/**
+ * This interface steps a range of poles of a PendulumStore in one call.
+ * BatchDynamics is the scalar kernel and simd/VectorDynamics.java the
+ * Vector API one.
+ */
+interface BatchKernel {
+    /**
+     * This method advances the poles [lo, hi) of the store by one step.
+     * Return the number of those poles in FAILED state afterwards.
+     */
+    int step(PendulumStore st, double tau, double trackLimit, int lo, int hi);
+}
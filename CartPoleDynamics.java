@@ -0,0 +1,34 @@
+/**
+ * The derivative equations of the cart-pole, shared by all integrators.
+ */
+class CartPoleDynamics {
+    static final int POS = 0, POS_DOT = 1, ANGLE = 2, ANGLE_DOT = 3;
+
+    /**
+     * This method computes dy/dt for the state y[yo..yo+3] and stores it into
+     * out[oo..oo+3] as {posDot, posDDot, angleDot, angleDDot}.
+     */
+    static void derivatives(PoleParams p, double[] y, int yo, double action, double[] out, int oo) {
+        double posDot = y[yo + POS_DOT];
+        double angle = y[yo + ANGLE];
+        double angleDot = y[yo + ANGLE_DOT];
+
+        double force = p.forceMag * action;
+        double sinangle = Math.sin(angle);
+        double cosangle = Math.cos(angle);
+        double angleDotSq = angleDot * angleDot;
+        double common = (force + p.poleMassLength * angleDotSq * sinangle
+                - p.fricCart * (posDot < 0 ? -1 : 1)) / p.totalMass; // Friction Bug Fixed
+        double angleDDot = (9.8 * sinangle - cosangle * common
+                - p.fricPole * angleDot / p.poleMassLength)
+                / (p.halfPole * (p.fourthirds - p.poleMass * cosangle * cosangle
+                / p.totalMass));
+        double posDDot = common - p.poleMassLength * angleDDot * cosangle
+                / p.totalMass;
+
+        out[oo + POS] = posDot;
+        out[oo + POS_DOT] = posDDot;
+        out[oo + ANGLE] = angleDot;
+        out[oo + ANGLE_DOT] = angleDDot;
+    }
+}
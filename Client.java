@@ -21,13 +21,17 @@ public class Client extends Applet {
     double sensorSamplingRate = 100;
     // advance of simulation time (in second) per step
     double tau_sim = 0.01;
-    private static ObjectOutputStream out;
-    private static ObjectInputStream in;
+    // connection to the controller; -Dtransport=loopback runs the controller
+    // in this JVM instead of connecting to the ControlServer, and
+    // -Dtransport=udp sends datagrams to "ControlServer udp"
+    private static Transport transport;
     Physics physics;
     Socket requestSocket;
-    Thread physicsThread;
-    Thread sensorThread, actuatorThread;
-    Thread updatingUIThread;
+    // runs the physics steps, the sensor samples and the repaints
+    TickScheduler scheduler;
+    Sensor sensor;
+    Thread schedulerThread;
+    Thread actuatorThread;
     UpdatingUIThread animator;
     // frames per second for updating UI
     int fps = 10;
@@ -71,11 +75,21 @@ public class Client extends Applet {
 
 
         physics = new Physics(tau_sim, tau_sim / simSpeed);
+        Metrics.register_client(physics);
+        if ("loopback".equals(System.getProperty("transport"))) {
+            LoopbackTransport[] ends = LoopbackTransport.pair(LoopbackTransport.DEFAULT_CAPACITY);
+            new PoleServer_handler(ends[1]);
+            transport = ends[0];
+            return;
+        }
         try {
+            if ("udp".equals(System.getProperty("transport"))) {
+                // a sample every sensorSamplingPeriod_phy, allow for a few lost ones
+                transport = new UdpTransport("localhost", 25533, UdpTransport.DEFAULT_TIMEOUT_MS);
+                return;
+            }
             requestSocket = new Socket("localhost", 25533);
-            out = new ObjectOutputStream(requestSocket.getOutputStream());
-            out.flush();
-            in = new ObjectInputStream(requestSocket.getInputStream());
+            transport = new StreamTransport(requestSocket);
         } catch (IOException e) {
             System.out.println("Not able to bind to server");
         }
@@ -87,27 +101,24 @@ public class Client extends Applet {
     public void start() {
 
         //Start animating!
-        if (physicsThread == null) {
-            physicsThread = new Thread(physics);
-        }
-        physicsThread.start();
-
-        if (sensorThread == null) {
-            sensorThread = new Thread(new Sensor(physics, out, triggerType, threshold, sensorSamplingPeriod_sim, sensorSamplingPeriod_phy));
+        // The physics, the sensor and the UI tick on one timeline, in
+        // that order when they are due together
+        animator = new UpdatingUIThread(this, physics, (int) (1000 / fps), configInfo);
+        if (schedulerThread == null) {
+            scheduler = new TickScheduler();
+            physics.schedule(scheduler);
+            sensor = new Sensor(physics, transport, triggerType, threshold, sensorSamplingPeriod_sim, sensorSamplingPeriod_phy);
+            sensor.schedule(scheduler);
+            animator.schedule(scheduler);
+            schedulerThread = new Thread(scheduler, "tick-scheduler");
         }
-        sensorThread.start();
+        schedulerThread.start();
 
         if (actuatorThread == null) {
-            actuatorThread = new Thread(new Actuator(physics, in));
+            actuatorThread = new Thread(new Actuator(physics, transport));
         }
         actuatorThread.start();
 
-        animator = new UpdatingUIThread(this, physics, (int) (1000 / fps), configInfo);
-        if (updatingUIThread == null) {
-            updatingUIThread = new Thread(animator);
-        }
-        updatingUIThread.start();
-
     }
 
     /**
@@ -115,20 +126,30 @@ public class Client extends Applet {
      */
     public void stop() {
         //Stop the animating thread.
-        physicsThread = null;
-        sensorThread = null;
+        Thread actuator = actuatorThread;
+        schedulerThread = null;
         actuatorThread = null;
 
-        updatingUIThread.stop();
+        scheduler.stop();
 
         try {
-            out.writeObject("bye"); // signal to close the sever
-            out.flush();
-
-            in.readObject();
-            in.close();
-            out.close();
-            requestSocket.close();
+            // the sensor frames already queued go before the "bye"
+            sensor.stop();
+
+            // signal to close the sever
+            transport.send(Frame.BYE, null, 0, 0, Frame.NO_STAMPS);
+
+            // the actuator exits once it reads the server's "bye"
+            actuator.join(1000);
+            System.out.print(LatencyStats.summary(LatencyStats.CLIENT));
+            System.out.print(scheduler.summary());
+            if (physics.staleActions.sum() > 0) {
+                System.out.println(physics.staleActions.sum() + " stale action frames dropped");
+            }
+            if (Metrics.SENSOR_DROPPED.sum() > 0) {
+                System.out.println(Metrics.SENSOR_DROPPED.sum() + " sensor samples dropped");
+            }
+            transport.close();
         } catch (Exception ex) {
             ex.printStackTrace();
         }
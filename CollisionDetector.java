@@ -0,0 +1,94 @@
+/**
+ * This class finds the colliding carts of a PendulumStore once per
+ * simulation step with a sort-and-sweep over the 1-D track. The pole order
+ * by position is kept between steps; carts only move a little per step, so
+ * re-sorting it with insertion sort is close to linear, and the sweep only
+ * compares each cart with the neighbours that overlap it.
+ */
+import java.util.*;
+
+class CollisionDetector {
+    private final int[] order;     // pole ids sorted by position
+    private int[] pairs = new int[16];   // colliding pairs {a0, b0, a1, b1, ...}
+    private int numPairs;
+
+    CollisionDetector(final double[] pos) {
+        int size = pos.length;
+        Integer[] ids = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = i;
+        }
+        Arrays.sort(ids, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Double.compare(pos[a], pos[b]);
+            }
+        });
+        order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = ids[i];
+        }
+    }
+
+    /**
+     * This method finds every pair of carts of the given width that overlap
+     * and marks both of them FAILED in the state column. Pairs of carts that
+     * had both failed already are not reported again.
+     * Return the number of newly colliding pairs.
+     */
+    int detect(double[] pos, double cartWidth, byte[] state) {
+        sort(pos);
+
+        numPairs = 0;
+        int n = order.length;
+        for (int k = 0; k < n; k++) {
+            int a = order[k];
+            double limit = pos[a] + cartWidth;
+            for (int m = k + 1; m < n && pos[order[m]] < limit; m++) {
+                int b = order[m];
+                if (state[a] == PendulumStore.FAILED && state[b] == PendulumStore.FAILED) {
+                    continue;
+                }
+                add_pair(a, b);
+                state[a] = PendulumStore.FAILED;
+                state[b] = PendulumStore.FAILED;
+            }
+        }
+        return numPairs;
+    }
+
+    // Insertion sort of the order by current position
+    private void sort(double[] pos) {
+        for (int k = 1; k < order.length; k++) {
+            int id = order[k];
+            double x = pos[id];
+            int m = k - 1;
+            while (m >= 0 && pos[order[m]] > x) {
+                order[m + 1] = order[m];
+                m--;
+            }
+            order[m + 1] = id;
+        }
+    }
+
+    private void add_pair(int a, int b) {
+        if (2 * numPairs + 2 > pairs.length) {
+            pairs = Arrays.copyOf(pairs, pairs.length * 2);
+        }
+        pairs[2 * numPairs] = Math.min(a, b);
+        pairs[2 * numPairs + 1] = Math.max(a, b);
+        numPairs++;
+    }
+
+    // Number of colliding pairs found by the last detect()
+    int get_pair_count() {
+        return numPairs;
+    }
+
+    int pair_first(int k) {
+        return pairs[2 * k];
+    }
+
+    int pair_second(int k) {
+        return pairs[2 * k + 1];
+    }
+}
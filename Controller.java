@@ -0,0 +1,13 @@
+/**
+ * This interface computes the actions of a control session. It receives the
+ * whole sensor frame, {angle, angleDot, pos, posDot} for every pole, so an
+ * implementation may use the state of other poles to control one.
+ */
+interface Controller {
+
+    /**
+     * This method writes the action of pole i into actions[i] for the first
+     * numPoles poles of data.
+     */
+    void compute(double[] data, int numPoles, double[] actions);
+}
@@ -0,0 +1,49 @@
+/**
+ * This class creates the controllers a session can choose by name or id.
+ * The id is what a client sends in a Frame.CONTROLLER frame.
+ */
+class Controllers {
+    static final int LADDER = 0;
+    static final int SCHEDULE = 1;
+    static final int LQR = 2;
+    static final String[] NAMES = {"ladder", "schedule", "lqr"};
+
+    // Controller of the sessions that do not choose one (-Dcontroller=name)
+    static final int DEFAULT = default_id(System.getProperty("controller", "ladder"));
+
+    // An unknown name must not fail the class initialization of every user
+    private static int default_id(String name) {
+        try {
+            return id_of(name);
+        } catch (IllegalArgumentException e) {
+            System.out.println("unknown controller " + name + " in -Dcontroller, using "
+                    + NAMES[LADDER] + "; known: " + String.join(", ", NAMES));
+            return LADDER;
+        }
+    }
+
+    static int id_of(String name) {
+        for (int id = 0; id < NAMES.length; id++) {
+            if (NAMES[id].equals(name)) {
+                return id;
+            }
+        }
+        throw new IllegalArgumentException("unknown controller " + name);
+    }
+
+    // Whether the controller computes each pole from its own data only, so
+    // the poles of different sessions can be evaluated in one batch
+    static boolean per_pole(int id) {
+        return id == LADDER || id == SCHEDULE;
+    }
+
+    // Return a new controller for one session, or null if the id is unknown
+    static Controller create(int id) {
+        switch (id) {
+            case LADDER:   return new LadderController();
+            case SCHEDULE: return new GainScheduleController();
+            case LQR:      return new LqrController();
+            default:       return null;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ * This class implements the binary wire format used between the client
+ * (Sensor/Actuator) and the control server. It replaces the Java-serialized
+ * double[] frames that used to go through ObjectOutputStream.
+ *
+ * Frame layout (big endian):
+ *   int    length    number of bytes that follow this field
+ *   byte   version   WIRE_VERSION
+ *   byte   type      SENSOR, ACTION, BYE, CONTROLLER, SENSOR_DELTA or ACTION_DELTA
+ *   int    poles     number of poles carried in the payload
+ *   long   seq       sequence number of the sensor sample
+ *   long   stamps[]  STAMPS System.nanoTime() stamps, see SAMPLED..SERVER_SENT
+ *   double values[]  poles * values_per_pole(type) raw doubles
+ *
+ * An action frame carries the sequence number and the stamps of the sensor
+ * frame it answers, completed by the server, for latency tracing.
+ *
+ * The delta frames are sparse: "poles" counts only the poles carried, and
+ * each of them starts with its pole id (an exact integer in a double). The
+ * server keeps the last known data of the poles left out (see SensorState).
+ * With a per-pole controller it answers a sensor delta with an action delta
+ * for the same poles, otherwise with a full action frame.
+ */
+import java.io.*;
+import java.nio.ByteBuffer;
+
+class Frame {
+    static final byte WIRE_VERSION = 2;
+
+    // Message types
+    static final byte SENSOR = 1;   // {angle, angleDot, pos, posDot} per pole
+    static final byte ACTION = 2;   // {action} per pole
+    static final byte BYE = 3;      // no payload, closes the session
+    static final byte CONTROLLER = 4;   // no payload, seq is the Controllers id to use
+    static final byte SENSOR_DELTA = 5; // {pole id, angle, angleDot, pos, posDot} per changed pole
+    static final byte ACTION_DELTA = 6; // {pole id, action} per pole of a SENSOR_DELTA
+
+    // Indices of the stamps
+    static final int SAMPLED = 0;           // sensor read the poles
+    static final int SENT = 1;              // sensor wrote the frame
+    static final int SERVER_RECEIVED = 2;   // server read the frame
+    static final int COMPUTED = 3;          // server computed the actions
+    static final int SERVER_SENT = 4;       // server wrote the reply
+    static final int STAMPS = 5;
+
+    // version + type + poles + seq + stamps
+    static final int HEADER_BYTES = 6 + 8 + 8 * STAMPS;
+    // length prefix + header
+    static final int PREFIX_BYTES = 4 + HEADER_BYTES;
+    // largest pole count a received frame may announce (-Dframe.max.poles)
+    static final int MAX_POLES = Integer.getInteger("frame.max.poles", 1 << 16);
+
+    byte type;
+    int poles;
+    long seq;
+    final long[] stamps = new long[STAMPS];
+    double[] values;
+
+    Frame(int capacity) {
+        values = new double[capacity];
+    }
+
+    // Number of doubles carried for each pole by a frame of the given type
+    static int values_per_pole(byte type) {
+        switch (type) {
+            case SENSOR: return 4;
+            case ACTION: return 1;
+            case SENSOR_DELTA: return 5;
+            case ACTION_DELTA: return 2;
+            default:     return 0;
+        }
+    }
+
+    // Number of doubles in the payload of this frame
+    int count() {
+        return poles * values_per_pole(type);
+    }
+
+    // Total number of bytes of a frame on the wire, including the length prefix
+    static int frame_bytes(byte type, int poles) {
+        return PREFIX_BYTES + 8 * poles * values_per_pole(type);
+    }
+
+    /**
+     * This method checks the header of a received frame before anything is
+     * allocated for it. Return the number of doubles of its payload.
+     * @throws IOException if the pole count is out of range or does not
+     * match the length
+     */
+    static int check_header(int length, byte type, int poles) throws IOException {
+        if (poles < 0 || poles > MAX_POLES) {
+            throw new IOException("malformed frame: " + poles + " poles");
+        }
+        long n = (long) poles * values_per_pole(type);
+        if (length != HEADER_BYTES + 8L * n) {
+            throw new IOException("malformed frame: length " + length
+                    + " for " + poles + " poles");
+        }
+        return (int) n;
+    }
+
+    private void ensure_capacity(int n) {
+        if (values.length < n) {
+            values = new double[n];
+        }
+    }
+
+    static final long[] NO_STAMPS = new long[STAMPS];
+
+    /**
+     * This method writes one frame without sequence number and stamps on the
+     * data output stream. The caller is responsible for flushing the stream.
+     */
+    static void write(DataOutput out, byte type, double[] values, int poles) throws IOException {
+        write(out, type, values, poles, 0, NO_STAMPS);
+    }
+
+    /**
+     * This method writes one frame on the data output stream. The caller is
+     * responsible for flushing the stream.
+     */
+    static void write(DataOutput out, byte type, double[] values, int poles,
+                      long seq, long[] stamps) throws IOException {
+        int n = poles * values_per_pole(type);
+        out.writeInt(HEADER_BYTES + 8 * n);
+        out.writeByte(WIRE_VERSION);
+        out.writeByte(type);
+        out.writeInt(poles);
+        out.writeLong(seq);
+        for (int i = 0; i < STAMPS; i++) {
+            out.writeLong(stamps[i]);
+        }
+        for (int i = 0; i < n; i++) {
+            out.writeDouble(values[i]);
+        }
+    }
+
+    /**
+     * This method blocks until a full frame has been read from the data input
+     * stream and stores it into this object, reusing the value buffer.
+     */
+    void read(DataInput in) throws IOException {
+        int length = in.readInt();
+        byte version = in.readByte();
+        if (version != WIRE_VERSION) {
+            throw new IOException("unsupported wire version " + version);
+        }
+        type = in.readByte();
+        poles = in.readInt();
+        seq = in.readLong();
+        for (int i = 0; i < STAMPS; i++) {
+            stamps[i] = in.readLong();
+        }
+        int n = check_header(length, type, poles);
+        ensure_capacity(n);
+        for (int i = 0; i < n; i++) {
+            values[i] = in.readDouble();
+        }
+    }
+
+    /**
+     * This method encodes one frame without sequence number and stamps into
+     * the byte buffer. The buffer must have at least frame_bytes(type, poles)
+     * bytes remaining.
+     */
+    static void encode(ByteBuffer buf, byte type, double[] values, int poles) {
+        encode(buf, type, values, poles, 0, NO_STAMPS);
+    }
+
+    /**
+     * This method encodes one frame into the byte buffer. The buffer must have
+     * at least frame_bytes(type, poles) bytes remaining.
+     */
+    static void encode(ByteBuffer buf, byte type, double[] values, int poles,
+                       long seq, long[] stamps) {
+        int n = poles * values_per_pole(type);
+        buf.putInt(HEADER_BYTES + 8 * n);
+        buf.put(WIRE_VERSION);
+        buf.put(type);
+        buf.putInt(poles);
+        buf.putLong(seq);
+        for (int i = 0; i < STAMPS; i++) {
+            buf.putLong(stamps[i]);
+        }
+        for (int i = 0; i < n; i++) {
+            buf.putDouble(values[i]);
+        }
+    }
+
+    /**
+     * This method decodes one frame from the byte buffer into this object.
+     * Return false, leaving the buffer position unchanged, if the buffer does
+     * not hold a complete frame yet.
+     * @throws IOException if the frame is malformed
+     */
+    boolean decode(ByteBuffer buf) throws IOException {
+        int start = buf.position();
+        if (buf.remaining() < PREFIX_BYTES) {
+            return false;
+        }
+        // the header is checked before waiting for the payload it announces
+        int length = buf.getInt(start);
+        byte version = buf.get(start + 4);
+        if (version != WIRE_VERSION) {
+            throw new IOException("unsupported wire version " + version);
+        }
+        byte frameType = buf.get(start + 5);
+        int framePoles = buf.getInt(start + 6);
+        int n = check_header(length, frameType, framePoles);
+        if (buf.remaining() - 4 < length) {
+            return false;
+        }
+        type = frameType;
+        poles = framePoles;
+        ensure_capacity(n);
+        buf.position(start + 10);
+        seq = buf.getLong();
+        for (int i = 0; i < STAMPS; i++) {
+            stamps[i] = buf.getLong();
+        }
+        for (int i = 0; i < n; i++) {
+            values[i] = buf.getDouble();
+        }
+        return true;
+    }
+}
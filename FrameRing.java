@@ -0,0 +1,137 @@
+/**
+ * This class is a bounded queue of frames with many producers and one
+ * consumer. A producer claims a slot with a compare-and-set on the tail,
+ * copies the values into the frame of the slot and publishes it; the
+ * consumer swaps the value buffer of the slot with its own frame's, so a
+ * frame is copied once and nothing is allocated once the slots have grown
+ * to the largest frame. A waiting side spins briefly, then parks.
+ */
+import java.io.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+class FrameRing {
+    private static final int SPINS = 100;
+
+    private final Frame[] slots;
+    private final int mask;
+    // published[slot] = sequence + 1 once the frame of that sequence is written
+    private final AtomicLongArray published;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head = 0;
+    private volatile boolean closed = false;
+    private volatile Thread consumer;
+
+    FrameRing(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        slots = new Frame[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Frame(4);
+        }
+        mask = capacity - 1;
+        published = new AtomicLongArray(capacity);
+    }
+
+    void put(byte type, double[] values, int poles, long seq, long[] stamps) throws IOException {
+        long s;
+        int spins = 0;
+        while (true) {
+            if (closed) {
+                throw new IOException("loopback transport closed");
+            }
+            s = tail.get();
+            if (s - head >= slots.length) {
+                // full, wait for the consumer
+                if (++spins < SPINS) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.parkNanos(this, 10000);
+                }
+                continue;
+            }
+            if (tail.compareAndSet(s, s + 1)) {
+                break;
+            }
+        }
+        publish(s, type, values, poles, seq, stamps);
+    }
+
+    /**
+     * This method adds a frame unless the queue is full or closed.
+     * Return false if the frame was not added.
+     */
+    boolean offer(byte type, double[] values, int poles, long seq, long[] stamps) {
+        long s;
+        do {
+            s = tail.get();
+            if (closed || s - head >= slots.length) {
+                return false;
+            }
+        } while (!tail.compareAndSet(s, s + 1));
+        publish(s, type, values, poles, seq, stamps);
+        return true;
+    }
+
+    // Fill the claimed slot of sequence s and hand it to the consumer
+    private void publish(long s, byte type, double[] values, int poles, long seq, long[] stamps) {
+        int slot = (int) (s & mask);
+        Frame frame = slots[slot];
+        int n = poles * Frame.values_per_pole(type);
+        if (frame.values.length < n) {
+            frame.values = new double[n];
+        }
+        if (n > 0) {
+            System.arraycopy(values, 0, frame.values, 0, n);
+        }
+        System.arraycopy(stamps, 0, frame.stamps, 0, Frame.STAMPS);
+        frame.type = type;
+        frame.poles = poles;
+        frame.seq = seq;
+        published.set(slot, s + 1);
+
+        Thread waiting = consumer;
+        if (waiting != null) {
+            LockSupport.unpark(waiting);
+        }
+    }
+
+    void take(Frame frame) throws IOException {
+        long h = head;
+        int slot = (int) (h & mask);
+        int spins = 0;
+        while (published.get(slot) != h + 1) {
+            if (closed && tail.get() == h) {
+                throw new EOFException("loopback transport closed");
+            }
+            if (++spins < SPINS) {
+                Thread.onSpinWait();
+                continue;
+            }
+            consumer = Thread.currentThread();
+            if (published.get(slot) != h + 1 && !closed) {
+                LockSupport.park(this);
+            }
+            consumer = null;
+        }
+
+        Frame from = slots[slot];
+        double[] values = frame.values;
+        frame.values = from.values;
+        from.values = values;
+        System.arraycopy(from.stamps, 0, frame.stamps, 0, Frame.STAMPS);
+        frame.type = from.type;
+        frame.poles = from.poles;
+        frame.seq = from.seq;
+        head = h + 1;
+    }
+
+    void close() {
+        closed = true;
+        Thread waiting = consumer;
+        if (waiting != null) {
+            LockSupport.unpark(waiting);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * This class computes the same actions as
+ * PoleServer_handler.calculate_action with one table lookup per pole. The
+ * ladder only depends on which side of its thresholds each sensor value
+ * is, so each value is reduced to a cell and the ladder is evaluated once
+ * at startup for every combination of cells. The cells come from the bits
+ * of the values, small lookups and 0/1 compares, not branches, so an
+ * evaluation costs the same whatever the sensor data is.
+ */
+import java.util.*;
+
+class GainScheduleController implements Controller {
+    private static final double DEG = 0.01745;
+    // thresholds of the angle and angleDot ladders, computed as the ladder
+    // does, and +Infinity: as raw bits they order as |x| does, and NaN is
+    // above all of them
+    private static final long[] STEPS = {bits(0), bits(2 * DEG), bits(5 * DEG), bits(10 * DEG),
+            bits(20 * DEG), bits(30 * DEG), bits(50 * DEG), bits(60 * DEG), bits(65 * DEG),
+            bits(Double.POSITIVE_INFINITY)};
+    private static final double TARGET_POS = 2;
+    private static final double RECOVERING = -2 * DEG;
+
+    // |x| falls into a bucket of its binary exponent and the top 4 bits of
+    // its mantissa, from 2^-5 to 2 and clamped. No bucket holds more than
+    // one threshold, so the cell of x is known from its sign, its bucket
+    // and whether |x| is above the threshold in the bucket.
+    private static final int BUCKET_SHIFT = 48;
+    private static final int FIRST_BUCKET = (1023 - 5) << 4;
+    private static final int LAST_BUCKET = 6 << 4;
+    // buckets of each sign, a power of two so the sign bit is a bit of the
+    // index into LEVEL
+    private static final int BUCKETS = 128;
+
+    // cells of an angle or angleDot: LEVELS, plus the thresholds below x
+    // if x > 0, less the thresholds below -x if x < 0
+    private static final int LEVELS = STEPS.length;
+    private static final int ANGLE_CELLS = 2 * LEVELS + 1;
+    // [-0.5, 0] or NaN, (0, 0.5], above 0.5, below -0.5
+    private static final int POS_DOT_CELLS = 4;
+    // NaN, short of the target and not falling back, short and falling
+    // back, at or past the target
+    private static final int POS_CELLS = 4;
+
+    // threshold in each bucket, or Long.MAX_VALUE
+    private static final long[] BUCKET_STEP = new long[BUCKETS];
+    // cell by (sign, bucket, above the threshold of the bucket), and the
+    // same times ANGLE_CELLS for the angleDot part of an index
+    private static final int[] LEVEL = new int[4 * BUCKETS];
+    private static final int[] DOT_LEVEL = new int[4 * BUCKETS];
+    // action by index(), over all combinations of cells
+    private static final double[] TABLE;
+
+    static {
+        for (int b = 0; b <= LAST_BUCKET; b++) {
+            long low = b == 0 ? 0 : (long) (FIRST_BUCKET + b) << BUCKET_SHIFT;
+            long high = b == LAST_BUCKET ? Long.MAX_VALUE : (long) (FIRST_BUCKET + b + 1) << BUCKET_SHIFT;
+            int below = 0;
+            BUCKET_STEP[b] = Long.MAX_VALUE;
+            for (long step : STEPS) {
+                if (step < low) {
+                    below++;
+                } else if (step < high) {
+                    if (BUCKET_STEP[b] != Long.MAX_VALUE) {
+                        throw new IllegalStateException("two thresholds in bucket " + b);
+                    }
+                    BUCKET_STEP[b] = step;
+                }
+            }
+            for (int above = 0; above < 2; above++) {
+                LEVEL[(b << 1) | above] = LEVELS + below + above;
+                LEVEL[((BUCKETS + b) << 1) | above] = LEVELS - below - above;
+            }
+        }
+        for (int i = 0; i < LEVEL.length; i++) {
+            DOT_LEVEL[i] = LEVEL[i] * ANGLE_CELLS;
+        }
+        TABLE = build();
+    }
+
+    public void compute(double[] data, int numPoles, double[] actions) {
+        for (int i = 0; i < numPoles; i++) {
+            actions[i] = action(data[i*4+0], data[i*4+1], data[i*4+2], data[i*4+3]);
+        }
+        if (Telemetry.CONTROLLER >= Telemetry.DEBUG) {
+            for (int i = 0; i < numPoles; i++) {
+                Telemetry.record(Telemetry.CAT_CONTROLLER, Telemetry.EV_CONTROL, 0,
+                    data[i*4+0], data[i*4+1], data[i*4+2], actions[i]);
+            }
+        }
+    }
+
+    static double action(double angle, double angleDot, double pos, double posDot) {
+        return TABLE[index(angle, angleDot, pos, posDot)];
+    }
+
+    static int index(double angle, double angleDot, double pos, double posDot) {
+        int posDotCell = (posDot > 0 ? 1 : 0) + (posDot > 0.5 ? 1 : 0) + 3 * (posDot < -0.5 ? 1 : 0);
+        int shortOf = pos < TARGET_POS ? 1 : 0;
+        int falling = angleDot > RECOVERING ? 0 : 1;
+        int posCell = shortOf + (shortOf & falling) + 3 * (pos >= TARGET_POS ? 1 : 0);
+        return (posCell * POS_DOT_CELLS + posDotCell) * (ANGLE_CELLS * ANGLE_CELLS)
+                + DOT_LEVEL[cell(angleDot)] + LEVEL[cell(angle)];
+    }
+
+    // Index into LEVEL of an angle or angleDot
+    static int cell(double x) {
+        long bits = Double.doubleToRawLongBits(x);
+        long magnitude = bits & Long.MAX_VALUE;
+        int b = Math.min(Math.max((int) (magnitude >>> BUCKET_SHIFT) - FIRST_BUCKET, 0), LAST_BUCKET);
+        int above = (int) ((BUCKET_STEP[b] - magnitude) >>> 63);
+        return (((int) (bits >>> 63) * BUCKETS + b) << 1) | above;
+    }
+
+    // Evaluate the ladder on one value of every combination of cells
+    private static double[] build() {
+        double[] levels = new double[ANGLE_CELLS];
+        for (int k = 1; k <= LEVELS; k++) {
+            long above = k < LEVELS ? STEPS[k] : bits(Double.NaN);
+            levels[LEVELS + k] = Double.longBitsToDouble(above);
+            levels[LEVELS - k] = Double.longBitsToDouble(above | Long.MIN_VALUE);
+        }
+        // the angleDot cell that holds values on both sides of RECOVERING
+        double[] angleDots = Arrays.copyOf(levels, ANGLE_CELLS + 1);
+        angleDots[ANGLE_CELLS] = RECOVERING / 2;
+        double[] positions = {Double.NaN, 0, TARGET_POS};
+        double[] posDots = {0, 0.5, 1, -1};
+
+        double[] table = new double[POS_CELLS * POS_DOT_CELLS * ANGLE_CELLS * ANGLE_CELLS];
+        for (double angle : levels) {
+            for (double angleDot : angleDots) {
+                for (double pos : positions) {
+                    for (double posDot : posDots) {
+                        table[index(angle, angleDot, pos, posDot)] =
+                                PoleServer_handler.ladder_action(angle, angleDot, pos, posDot);
+                    }
+                }
+            }
+        }
+        return table;
+    }
+
+    private static long bits(double x) {
+        return Double.doubleToRawLongBits(x);
+    }
+}
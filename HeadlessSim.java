@@ -0,0 +1,168 @@
+/**
+ * This program runs the pendulum simulation without the applet and without
+ * wall-clock pacing. Simulation time advances as fast as the CPU allows and
+ * the sensor/controller/actuator loop runs in lockstep with it: every
+ * sensor sample is sent to the controller and its actions are applied
+ * before the simulation advances any further.
+ *
+ * Usage: java HeadlessSim [sim seconds] [step size] [sensor rate] [local | loopback | host] [integrator] [controller] [trigger]
+ *   local   evaluate the controller in-process (default)
+ *   loopback  send the samples to a PoleServer_handler session in this
+ *           JVM through a LoopbackTransport
+ *   udp:host  send the samples as datagrams to "ControlServer udp" on
+ *           host; a sample whose actions do not arrive is skipped
+ *   host    send the samples to a ControlServer running on host
+ *   integrator  euler (default), semi-implicit, rk4 or rk45
+ *   controller  one of Controllers.NAMES, the server default if not given
+ *   trigger  timer (default), or event[:degrees] to send only the poles that
+ *            changed (SendOnDelta), with the angle deadband in degrees (5)
+ */
+import java.io.*;
+import java.net.*;
+
+public class HeadlessSim {
+
+    private static final int port = 25533;
+
+    public static void main(String[] args) throws IOException {
+        double duration = args.length > 0 ? Double.parseDouble(args[0]) : 600;
+        double tau_sim = args.length > 1 ? Double.parseDouble(args[1]) : 0.01;
+        double sensorSamplingRate = args.length > 2 ? Double.parseDouble(args[2]) : 100;
+        String controller = args.length > 3 ? args[3] : "local";
+        Integrator integrator = Integrator.by_name(args.length > 4 ? args[4] : "euler");
+        int controllerId = args.length > 5 ? Controllers.id_of(args[5]) : Controllers.DEFAULT;
+        String trigger = args.length > 6 ? args[6] : "timer";
+
+        // tau_phy is only used for pacing, which is skipped here
+        Physics physics = new Physics(tau_sim, 0);
+        physics.set_integrator(integrator);
+        int stepsPerSample = Math.max(1, (int) Math.round(1.0 / sensorSamplingRate / tau_sim));
+
+        Transport transport = null;
+        if (controller.equals("loopback")) {
+            LoopbackTransport[] ends = LoopbackTransport.pair(LoopbackTransport.DEFAULT_CAPACITY);
+            new PoleServer_handler(ends[1]);
+            transport = ends[0];
+        } else if (controller.startsWith("udp:")) {
+            // wait for the actions no longer than a sample period of real time
+            int timeoutMs = Math.max(1, (int) Math.round(1000 / sensorSamplingRate));
+            transport = new UdpTransport(controller.substring(4), port, timeoutMs);
+        } else if (!controller.equals("local")) {
+            transport = new StreamTransport(new Socket(controller, port));
+        }
+        if (transport != null && args.length > 5) {
+            transport.send(Frame.CONTROLLER, null, 0, controllerId, Frame.NO_STAMPS);
+        }
+        Controller local = Controllers.create(controllerId);
+        SendOnDelta delta = null;
+        if (trigger.startsWith("event")) {
+            String[] spec = trigger.split(":");
+            double threshold = spec.length > 1 ? Double.parseDouble(spec[1]) : 5;
+            delta = new SendOnDelta(physics.NUM_POLES, Math.toRadians(threshold));
+        }
+        long frames = 0, bytes = 0, timeouts = 0;
+
+        double[] sensorData = new double[4 * physics.NUM_POLES];
+        double[] actions = new double[physics.NUM_POLES];
+        Frame frame = new Frame(physics.NUM_POLES);
+        long[] stamps = new long[Frame.STAMPS];
+        long seq = 0;
+
+        long start = System.nanoTime();
+        long steps = 0;
+        while (physics.get_simTime() < duration && physics.pole_in_good_state) {
+            if (steps % stepsPerSample == 0) {
+                physics.get_sensor_data(sensorData);
+                stamps[Frame.SAMPLED] = System.nanoTime();
+                byte type = delta == null ? Frame.SENSOR : delta.sample(sensorData, physics.NUM_POLES);
+                if (type == Frame.SENSOR_DELTA) {
+                    frames++;
+                    bytes += Frame.frame_bytes(type, delta.count);
+                } else if (type == Frame.SENSOR) {
+                    frames++;
+                    bytes += Frame.frame_bytes(type, physics.NUM_POLES);
+                }
+                if (type != 0) {
+                    seq++;
+                    if (Recorder.ENABLED) {
+                        if (type == Frame.SENSOR_DELTA) {
+                            Recorder.frame(Recorder.CLIENT, 0, type, delta.values, delta.count, seq);
+                        } else {
+                            Recorder.frame(Recorder.CLIENT, 0, type, sensorData, physics.NUM_POLES, seq);
+                        }
+                    }
+                }
+                if (type == 0) {
+                    // nothing changed, the last actions still apply
+                } else if (transport == null) {
+                    // the local controller sees the data as the server would
+                    // keep it, the last values sent for every pole
+                    local.compute(delta == null ? sensorData : delta.get_sent(), physics.NUM_POLES, actions);
+                    physics.update_actions(actions);
+                    if (Recorder.ENABLED) {
+                        Recorder.frame(Recorder.CLIENT, 0, Frame.ACTION, actions, physics.NUM_POLES, seq);
+                    }
+                } else {
+                    stamps[Frame.SENT] = System.nanoTime();
+                    if (type == Frame.SENSOR_DELTA) {
+                        transport.send(type, delta.values, delta.count, seq, stamps);
+                    } else {
+                        transport.send(type, sensorData, physics.NUM_POLES, seq, stamps);
+                    }
+                    // over a datagram transport the answer to an earlier sample
+                    // may come first; apply it and wait for this one
+                    try {
+                        do {
+                            transport.receive(frame);
+                            long received = System.nanoTime();
+                            if (frame.type == Frame.ACTION_DELTA) {
+                                physics.update_action_pairs(frame.values, frame.poles, frame.seq);
+                            } else {
+                                physics.update_actions(frame.values, frame.seq);
+                            }
+                            LatencyStats.record_client(frame.stamps, received, System.nanoTime());
+                            if (Recorder.ENABLED) {
+                                Recorder.frame(Recorder.CLIENT, 0, frame.type, frame.values, frame.poles, frame.seq);
+                            }
+                        } while (frame.seq < seq);
+                    } catch (InterruptedIOException timeout) {
+                        // the frame or its answer was lost, keep the last actions
+                        timeouts++;
+                    }
+                }
+            }
+            physics.step();
+            steps++;
+        }
+        double wall = (System.nanoTime() - start) / 1e9;
+
+        if (transport != null) {
+            transport.send(Frame.BYE, null, 0, 0, Frame.NO_STAMPS);
+            try {
+                do {
+                    transport.receive(frame);
+                } while (frame.type != Frame.BYE);
+            } catch (InterruptedIOException timeout) {
+                System.out.println("no answer to bye");
+            }
+            transport.close();
+        }
+
+        System.out.println(String.format("simulated %.3f secs in %.3f secs wall time (%.0fx real time), %d steps",
+                physics.get_simTime(), wall, physics.get_simTime() / wall, steps));
+        System.out.println(String.format("%d sensor frames, %d bytes", frames, bytes));
+        if (!physics.pole_in_good_state) {
+            System.out.println(String.format("Failed at sim. time = %.03f secs", physics.get_simTime()));
+        }
+        if (transport instanceof UdpTransport) {
+            System.out.print(((UdpTransport) transport).filter.summary("udp actions"));
+            System.out.println(timeouts + " samples without actions");
+        }
+        if (transport != null) {
+            System.out.print(LatencyStats.summary(LatencyStats.CLIENT));
+            if (physics.staleActions.sum() > 0) {
+                System.out.println(physics.staleActions.sum() + " stale action frames dropped");
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * This class advances the state of one cart-pole by a simulation step. The
+ * implementations share the derivative equations of CartPoleDynamics and
+ * only differ in how they integrate them:
+ *   euler            explicit Euler (the original update of Physics)
+ *   semi-implicit    semi-implicit (symplectic) Euler
+ *   rk4              classic 4th order Runge-Kutta
+ *   rk45             adaptive Dormand-Prince 5(4) with error control
+ *
+ * The state is y = {pos, posDot, angle, angleDot}. The caller owns the work
+ * array so that integrators are stateless and can be shared by threads.
+ */
+abstract class Integrator {
+    // Size of the work array expected by step()
+    static final int WORK_SIZE = 64;
+
+    static final Integrator EULER = new ExplicitEuler();
+    static final Integrator SEMI_IMPLICIT_EULER = new SemiImplicitEuler();
+    static final Integrator RK4 = new RungeKutta4();
+    static final Integrator RK45 = new DormandPrince45(1e-9, 1e-7);
+
+    final String name;
+
+    Integrator(String name) {
+        this.name = name;
+    }
+
+    /**
+     * This method advances y by dt with a constant action. On return
+     * work[0..3] hold the derivatives {posDot, posDDot, angleDot, angleDDot}
+     * at the start of the step.
+     * Return the number of derivative evaluations used.
+     */
+    abstract int step(PoleParams p, double[] y, double action, double dt, double[] work);
+
+    static Integrator by_name(String name) {
+        Integrator[] all = {EULER, SEMI_IMPLICIT_EULER, RK4, RK45};
+        for (Integrator integrator : all) {
+            if (integrator.name.equals(name)) {
+                return integrator;
+            }
+        }
+        throw new IllegalArgumentException("unknown integrator " + name);
+    }
+
+    public String toString() {
+        return name;
+    }
+}
+
+class ExplicitEuler extends Integrator {
+    ExplicitEuler() {
+        super("euler");
+    }
+
+    int step(PoleParams p, double[] y, double action, double dt, double[] work) {
+        CartPoleDynamics.derivatives(p, y, 0, action, work, 0);
+        for (int k = 0; k < 4; k++) {
+            y[k] += work[k] * dt;
+        }
+        return 1;
+    }
+}
+
+class SemiImplicitEuler extends Integrator {
+    SemiImplicitEuler() {
+        super("semi-implicit");
+    }
+
+    int step(PoleParams p, double[] y, double action, double dt, double[] work) {
+        CartPoleDynamics.derivatives(p, y, 0, action, work, 0);
+        // velocities first, then positions with the new velocities
+        y[CartPoleDynamics.POS_DOT] += work[CartPoleDynamics.POS_DOT] * dt;
+        y[CartPoleDynamics.ANGLE_DOT] += work[CartPoleDynamics.ANGLE_DOT] * dt;
+        y[CartPoleDynamics.POS] += y[CartPoleDynamics.POS_DOT] * dt;
+        y[CartPoleDynamics.ANGLE] += y[CartPoleDynamics.ANGLE_DOT] * dt;
+        return 1;
+    }
+}
+
+class RungeKutta4 extends Integrator {
+    RungeKutta4() {
+        super("rk4");
+    }
+
+    // work layout: k1 [0..3], k2 [4..7], k3 [8..11], k4 [12..15], tmp [16..19]
+    int step(PoleParams p, double[] y, double action, double dt, double[] work) {
+        CartPoleDynamics.derivatives(p, y, 0, action, work, 0);
+        for (int k = 0; k < 4; k++) {
+            work[16 + k] = y[k] + 0.5 * dt * work[k];
+        }
+        CartPoleDynamics.derivatives(p, work, 16, action, work, 4);
+        for (int k = 0; k < 4; k++) {
+            work[16 + k] = y[k] + 0.5 * dt * work[4 + k];
+        }
+        CartPoleDynamics.derivatives(p, work, 16, action, work, 8);
+        for (int k = 0; k < 4; k++) {
+            work[16 + k] = y[k] + dt * work[8 + k];
+        }
+        CartPoleDynamics.derivatives(p, work, 16, action, work, 12);
+        for (int k = 0; k < 4; k++) {
+            y[k] += dt / 6 * (work[k] + 2 * work[4 + k] + 2 * work[8 + k] + work[12 + k]);
+        }
+        return 4;
+    }
+}
+
+/**
+ * Dormand-Prince 5(4) with an embedded error estimate. The simulation step
+ * is covered by as many internal steps as the tolerances require, so the
+ * state always lands exactly at the end of the step. A step that does not
+ * converge (a non-finite error, an internal step below MIN_STEP of the
+ * simulation step or more than MAX_STEPS internal steps) finishes the rest
+ * of the simulation step with one fixed RK4 step and is counted in
+ * Metrics.INTEGRATOR_FALLBACKS.
+ */
+class DormandPrince45 extends Integrator {
+    private static final double
+        a21 = 1. / 5,
+        a31 = 3. / 40, a32 = 9. / 40,
+        a41 = 44. / 45, a42 = -56. / 15, a43 = 32. / 9,
+        a51 = 19372. / 6561, a52 = -25360. / 2187, a53 = 64448. / 6561, a54 = -212. / 729,
+        a61 = 9017. / 3168, a62 = -355. / 33, a63 = 46732. / 5247, a64 = 49. / 176, a65 = -5103. / 18656,
+        b1 = 35. / 384, b3 = 500. / 1113, b4 = 125. / 192, b5 = -2187. / 6784, b6 = 11. / 84,
+        // b - b*, the difference between the 5th and the 4th order weights
+        e1 = 71. / 57600, e3 = -71. / 16695, e4 = 71. / 1920, e5 = -17253. / 339200,
+        e6 = 22. / 525, e7 = -1. / 40;
+
+    // Smallest internal step, as a fraction of the simulation step
+    private static final double MIN_STEP = 1e-6;
+    // Most internal steps, accepted or rejected, per simulation step
+    private static final int MAX_STEPS = 10000;
+
+    private final double atol, rtol;
+
+    DormandPrince45(double atol, double rtol) {
+        super("rk45");
+        this.atol = atol;
+        this.rtol = rtol;
+    }
+
+    // work layout: k1..k7 [0..27], stage state [28..31], candidate [32..35], start derivatives [36..39]
+    int step(PoleParams p, double[] y, double action, double dt, double[] work) {
+        int evals = 0;
+        double t = 0;
+        double h = dt;
+        double hMin = dt * MIN_STEP;
+        int steps = 0;
+        // stage() weighs unused stages with 0, which a NaN left by an earlier step would still poison
+        java.util.Arrays.fill(work, 4, 28, 0);
+        CartPoleDynamics.derivatives(p, y, 0, action, work, 0);
+        System.arraycopy(work, 0, work, 36, 4);
+        evals++;
+
+        while (t < dt) {
+            boolean last = t + h >= dt;
+            if (last) {
+                h = dt - t;
+            }
+            stage(p, y, action, h, work, 4, a21, 0, 0, 0, 0);
+            stage(p, y, action, h, work, 8, a31, a32, 0, 0, 0);
+            stage(p, y, action, h, work, 12, a41, a42, a43, 0, 0);
+            stage(p, y, action, h, work, 16, a51, a52, a53, a54, 0);
+            stage(p, y, action, h, work, 20, a61, a62, a63, a64, a65);
+            for (int k = 0; k < 4; k++) {
+                work[32 + k] = y[k] + h * (b1 * work[k] + b3 * work[8 + k] + b4 * work[12 + k]
+                        + b5 * work[16 + k] + b6 * work[20 + k]);
+            }
+            CartPoleDynamics.derivatives(p, work, 32, action, work, 24);
+            evals += 6;
+
+            double err = 0;
+            for (int k = 0; k < 4; k++) {
+                double e = h * (e1 * work[k] + e3 * work[8 + k] + e4 * work[12 + k]
+                        + e5 * work[16 + k] + e6 * work[20 + k] + e7 * work[24 + k]);
+                double scale = atol + rtol * Math.max(Math.abs(y[k]), Math.abs(work[32 + k]));
+                err = Math.max(err, Math.abs(e) / scale);
+            }
+
+            // NaN fails both err < infinity and err <= 1
+            if (!(err < Double.POSITIVE_INFINITY) || (err > 1 && h <= hMin) || ++steps > MAX_STEPS) {
+                Metrics.INTEGRATOR_FALLBACKS.increment();
+                evals += RK4.step(p, y, action, dt - t, work);
+                break;
+            }
+            if (err <= 1) {
+                t = last ? dt : t + h;
+                System.arraycopy(work, 32, y, 0, 4);
+                // first same as last: k7 is k1 of the next internal step
+                System.arraycopy(work, 24, work, 0, 4);
+            }
+            double factor = err == 0 ? 5 : 0.9 * Math.pow(err, -0.2);
+            h = Math.max(hMin, h * Math.min(5, Math.max(0.2, factor)));
+        }
+        System.arraycopy(work, 36, work, 0, 4);
+        return evals;
+    }
+
+    // Evaluate the stage whose derivatives go to work[out..out+3]
+    private static void stage(PoleParams p, double[] y, double action, double h, double[] work, int out,
+                              double w1, double w2, double w3, double w4, double w5) {
+        for (int k = 0; k < 4; k++) {
+            work[28 + k] = y[k] + h * (w1 * work[k] + w2 * work[4 + k] + w3 * work[8 + k]
+                    + w4 * work[12 + k] + w5 * work[16 + k]);
+        }
+        CartPoleDynamics.derivatives(p, work, 28, action, work, out);
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * This program compares the integrators on one cart-pole trajectory. For
+ * every integrator and step size it reports the steps and derivative
+ * evaluations needed per simulated second, the wall time per simulated
+ * second and the error at the end of the trajectory against a reference
+ * solution computed with rk4 and a 10 us step.
+ *
+ * Usage: java IntegratorBench [sim seconds]
+ */
+public class IntegratorBench {
+
+    public static void main(String[] args) {
+        double duration = args.length > 0 ? Double.parseDouble(args[0]) : 1.0;
+        PoleParams params = new PoleParams();
+        Integrator[] integrators = {Integrator.EULER, Integrator.SEMI_IMPLICIT_EULER,
+                                    Integrator.RK4, Integrator.RK45};
+        double[] steps = {0.001, 0.005, 0.01, 0.02, 0.05};
+
+        double[] reference = new double[4];
+        simulate(params, Integrator.RK4, 1e-5, duration, reference);
+
+        System.out.println(String.format("%-14s %8s %12s %12s %14s %12s",
+                "integrator", "step", "steps/sim-s", "evals/sim-s", "wall us/sim-s", "max error"));
+        for (Integrator integrator : integrators) {
+            for (double dt : steps) {
+                double[] y = new double[4];
+                // warm up, then time enough repetitions to be measurable
+                simulate(params, integrator, dt, duration, y);
+                int reps = 0;
+                long evals = 0;
+                long start = System.nanoTime();
+                do {
+                    evals += simulate(params, integrator, dt, duration, y);
+                    reps++;
+                } while (System.nanoTime() - start < 200000000L);
+                double wall = (System.nanoTime() - start) / 1e3 / reps;
+
+                double err = 0;
+                for (int k = 0; k < 4; k++) {
+                    err = Math.max(err, Math.abs(y[k] - reference[k]));
+                }
+                System.out.println(String.format("%-14s %8.3f %12.0f %12.0f %14.2f %12.3e",
+                        integrator, dt, Math.ceil(duration / dt) / duration,
+                        (double) evals / reps / duration, wall / duration, err));
+            }
+        }
+    }
+
+    /**
+     * This method integrates one pole from a small tilt with a constant
+     * action for the given duration and leaves the final state in y.
+     * Return the number of derivative evaluations.
+     */
+    static long simulate(PoleParams params, Integrator integrator, double dt, double duration, double[] y) {
+        double[] work = new double[Integrator.WORK_SIZE];
+        y[CartPoleDynamics.POS] = 0.;
+        y[CartPoleDynamics.POS_DOT] = 0.1;
+        y[CartPoleDynamics.ANGLE] = 0.05;
+        y[CartPoleDynamics.ANGLE_DOT] = 0.;
+        double action = 0.05;
+
+        long evals = 0;
+        double t = 0;
+        while (t < duration - 1e-12) {
+            double h = Math.min(dt, duration - t);
+            evals += integrator.step(params, y, action, h, work);
+            t += h;
+        }
+        return evals;
+    }
+}
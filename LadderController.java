@@ -0,0 +1,13 @@
+/**
+ * The original if/else controller, PoleServer_handler.calculate_action,
+ * applied to each pole independently.
+ */
+class LadderController implements Controller {
+
+    public void compute(double[] data, int numPoles, double[] actions) {
+        for (int i = 0; i < numPoles; i++) {
+            actions[i] = PoleServer_handler.calculate_action(
+                    data[i*4+0], data[i*4+1], data[i*4+2], data[i*4+3]);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * This class records latencies in nanoseconds into log-linear buckets in
+ * the style of HdrHistogram: every power of two is split into 128 linear
+ * sub-buckets, so any recorded value is reported within 1% of its true
+ * value. Recording is a single atomic increment on a preallocated array,
+ * so it allocates nothing and can be shared by threads.
+ */
+import java.util.concurrent.atomic.AtomicLongArray;
+
+class LatencyHistogram {
+    private static final int SUB_BITS = 7;
+    private static final int SUB = 1 << SUB_BITS;
+    // enough buckets for any positive long
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB;
+
+    final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    void record(long nanos) {
+        counts.incrementAndGet(index(Math.max(0, nanos)));
+    }
+
+    static int index(long v) {
+        if (v < SUB) {
+            return (int) v;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        return (shift + 1) * SUB + (int) ((v >> shift) - SUB);
+    }
+
+    // Highest value that falls into the bucket
+    static long value_at(int index) {
+        if (index < SUB) {
+            return index;
+        }
+        int shift = index / SUB - 1;
+        long low = (long) (SUB + index % SUB) << shift;
+        return low + (1L << shift) - 1;
+    }
+
+    long count() {
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            n += counts.get(i);
+        }
+        return n;
+    }
+
+    /**
+     * Return the value below which the fraction p of the recorded values
+     * fall, or 0 if nothing has been recorded.
+     */
+    long percentile(double p) {
+        long total = count();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(p * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return value_at(i);
+            }
+        }
+        return value_at(BUCKETS - 1);
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    // One line summary in microseconds
+    String summary() {
+        return String.format("%-24s n=%-8d p50 %9.1f us  p99 %9.1f us  p999 %9.1f us",
+                name, count(), percentile(0.50) / 1e3, percentile(0.99) / 1e3, percentile(0.999) / 1e3);
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * This class holds the latency histograms of the sensor-to-actuation path.
+ * Every sensor frame is stamped when it is sampled and sent; the server
+ * adds when it received the frame, computed the actions and sent them
+ * back, and the actuator notes when it received and applied them.
+ * The network stage is the round trip minus the time spent in the server,
+ * so it does not depend on the two clocks agreeing.
+ */
+class LatencyStats {
+    // client side
+    static final LatencyHistogram SAMPLE_TO_SEND = new LatencyHistogram("client.sample_to_send");
+    static final LatencyHistogram NETWORK = new LatencyHistogram("client.network");
+    static final LatencyHistogram SERVER = new LatencyHistogram("client.server");
+    static final LatencyHistogram RECEIVE_TO_APPLY = new LatencyHistogram("client.receive_to_apply");
+    static final LatencyHistogram END_TO_END = new LatencyHistogram("client.end_to_end");
+
+    // server side
+    static final LatencyHistogram CONTROLLER = new LatencyHistogram("server.controller");
+    static final LatencyHistogram REPLY = new LatencyHistogram("server.reply");
+
+    static final LatencyHistogram[] CLIENT = {SAMPLE_TO_SEND, NETWORK, SERVER, RECEIVE_TO_APPLY, END_TO_END};
+    static final LatencyHistogram[] SERVER_SIDE = {CONTROLLER, REPLY};
+
+    /**
+     * This method records the client stages of an action frame that came
+     * back with the stamps of its sensor frame.
+     */
+    static void record_client(long[] stamps, long received, long applied) {
+        long server = stamps[Frame.SERVER_SENT] - stamps[Frame.SERVER_RECEIVED];
+        SAMPLE_TO_SEND.record(stamps[Frame.SENT] - stamps[Frame.SAMPLED]);
+        NETWORK.record(received - stamps[Frame.SENT] - server);
+        SERVER.record(server);
+        RECEIVE_TO_APPLY.record(applied - received);
+        END_TO_END.record(applied - stamps[Frame.SAMPLED]);
+    }
+
+    // Record the server stages of a frame once its reply has been written
+    static void record_server(long[] stamps, long written) {
+        CONTROLLER.record(stamps[Frame.COMPUTED] - stamps[Frame.SERVER_RECEIVED]);
+        REPLY.record(written - stamps[Frame.COMPUTED]);
+    }
+
+    static String summary(LatencyHistogram[] histograms) {
+        StringBuilder sb = new StringBuilder();
+        for (LatencyHistogram h : histograms) {
+            sb.append(h.summary()).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * This program drives many simulated plants against a running ControlServer
+ * and reports how fast sessions are set up and the round-trip control
+ * latency of sensor frames. It is used to compare the server modes.
+ *
+ * Usage: java LoadGenerator [sessions] [frames per session] [workers] [host]
+ */
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+public class LoadGenerator {
+
+    private static final int port = 25533;
+
+    public static void main(String[] args) throws Exception {
+        final int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        final int frames = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        final int workers = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        final String host = args.length > 3 ? args[3] : "localhost";
+
+        final Socket[] sockets = new Socket[sessions];
+        final DataOutputStream[] outs = new DataOutputStream[sessions];
+        final DataInputStream[] ins = new DataInputStream[sessions];
+        final long[][] latencies = new long[workers][];
+
+        // Phase 1: open every session and do one round trip on it
+        long start = System.nanoTime();
+        run_workers(workers, new Worker() {
+            public void run(int w) throws IOException {
+                Frame frame = new Frame(4);
+                for (int s = w; s < sessions; s += workers) {
+                    sockets[s] = new Socket(host, port);
+                    sockets[s].setTcpNoDelay(true);
+                    outs[s] = new DataOutputStream(new BufferedOutputStream(sockets[s].getOutputStream()));
+                    ins[s] = new DataInputStream(new BufferedInputStream(sockets[s].getInputStream()));
+                    round_trip(outs[s], ins[s], frame, s);
+                }
+            }
+        });
+        double setupSec = (System.nanoTime() - start) / 1e9;
+
+        // Phase 2: measure the control latency of every frame
+        start = System.nanoTime();
+        run_workers(workers, new Worker() {
+            public void run(int w) throws IOException {
+                Frame frame = new Frame(4);
+                int mine = (sessions - w + workers - 1) / workers;
+                long[] lat = new long[mine * frames];
+                int n = 0;
+                for (int f = 0; f < frames; f++) {
+                    for (int s = w; s < sessions; s += workers) {
+                        long t0 = System.nanoTime();
+                        round_trip(outs[s], ins[s], frame, f);
+                        lat[n++] = System.nanoTime() - t0;
+                    }
+                }
+                latencies[w] = lat;
+            }
+        });
+        double runSec = (System.nanoTime() - start) / 1e9;
+
+        // Phase 3: close every session
+        run_workers(workers, new Worker() {
+            public void run(int w) throws IOException {
+                Frame frame = new Frame(4);
+                for (int s = w; s < sessions; s += workers) {
+                    Frame.write(outs[s], Frame.BYE, null, 0);
+                    outs[s].flush();
+                    frame.read(ins[s]);
+                    sockets[s].close();
+                }
+            }
+        });
+
+        int total = 0;
+        for (long[] lat : latencies) {
+            total += lat.length;
+        }
+        long[] all = new long[total];
+        int k = 0;
+        for (long[] lat : latencies) {
+            System.arraycopy(lat, 0, all, k, lat.length);
+            k += lat.length;
+        }
+        Arrays.sort(all);
+
+        System.out.println(String.format("sessions: %d  workers: %d  frames/session: %d",
+                sessions, workers, frames));
+        System.out.println(String.format("session setup: %.0f sessions/sec", sessions / setupSec));
+        System.out.println(String.format("throughput:    %.0f frames/sec", total / runSec));
+        System.out.println(String.format("latency (us):  p50 %.1f  p99 %.1f  p999 %.1f  max %.1f",
+                percentile(all, 0.50) / 1e3, percentile(all, 0.99) / 1e3,
+                percentile(all, 0.999) / 1e3, all[all.length - 1] / 1e3));
+    }
+
+    interface Worker {
+        void run(int w) throws IOException;
+    }
+
+    // Run the worker body on the given number of threads and wait for them
+    static void run_workers(int workers, final Worker body) throws InterruptedException {
+        Thread[] threads = new Thread[workers];
+        for (int w = 0; w < workers; w++) {
+            final int id = w;
+            threads[w] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        body.run(id);
+                    } catch (IOException ioe) {
+                        ioe.printStackTrace();
+                    }
+                }
+            });
+            threads[w].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+    }
+
+    // Send one sensor frame and wait for the actions
+    static void round_trip(DataOutputStream out, DataInputStream in, Frame frame, int i) throws IOException {
+        frame.values[0] = 0.01 * (i % 10);
+        frame.values[1] = 0.;
+        frame.values[2] = -2.;
+        frame.values[3] = 0.;
+        Frame.write(out, Frame.SENSOR, frame.values, 1);
+        out.flush();
+        frame.read(in);
+    }
+
+    static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))];
+    }
+}
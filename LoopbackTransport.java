@@ -0,0 +1,41 @@
+/**
+ * This class is one end of an in-memory channel. What one end sends is
+ * received by the other end of the pair, in order. Closing either end
+ * closes both directions.
+ */
+import java.io.IOException;
+
+class LoopbackTransport implements Transport {
+    static final int DEFAULT_CAPACITY = 64;
+
+    private final FrameRing inbound;
+    private final FrameRing outbound;
+
+    private LoopbackTransport(FrameRing inbound, FrameRing outbound) {
+        this.inbound = inbound;
+        this.outbound = outbound;
+    }
+
+    /**
+     * This method creates a channel whose directions each buffer up to
+     * capacity frames (a power of two). Return its two ends.
+     */
+    static LoopbackTransport[] pair(int capacity) {
+        FrameRing a = new FrameRing(capacity);
+        FrameRing b = new FrameRing(capacity);
+        return new LoopbackTransport[] {new LoopbackTransport(a, b), new LoopbackTransport(b, a)};
+    }
+
+    public void send(byte type, double[] values, int poles, long seq, long[] stamps) throws IOException {
+        outbound.put(type, values, poles, seq, stamps);
+    }
+
+    public void receive(Frame frame) throws IOException {
+        inbound.take(frame);
+    }
+
+    public void close() {
+        outbound.close();
+        inbound.close();
+    }
+}
@@ -0,0 +1,392 @@
+/**
+ * This class controls all the poles of a session together with a discrete
+ * linear quadratic regulator, instead of each pole from its own sensor
+ * data. The carts are kept in a formation centred on the track,
+ * TARGET_SPACING apart, and the cost couples neighbouring carts through
+ * the error of their distance, so a cart that drifts pulls its neighbours
+ * along rather than running into them.
+ *
+ * The cart-pole is linearized around the upright position and discretized
+ * for the sampling period of the sensor. The cost of the N poles is
+ *   sum_i x_i' Q x_i + R u_i^2 + COUPLING * sum_i (e_i+1 - e_i)^2
+ * where x_i = {angle, angleDot, pos - target, posDot} and e_i its position
+ * error. The coupling term is the Laplacian of the path of carts, so the
+ * problem splits into N independent 4-state problems, one per eigenvector
+ * of the Laplacian, whose gains are put back together into one dense
+ * N x 4N gain matrix when the session's first frame arrives. After that an
+ * evaluation is one GainMatrix product and allocates nothing.
+ */
+import java.util.Arrays;
+
+class LqrController implements Controller {
+    // sampling period of the sensor the gains are computed for (secs)
+    static final double DEFAULT_DT = 0.01;
+    // distance between the targets of neighbouring carts
+    static final double TARGET_SPACING = 1.0;
+    // the formation is narrowed to fit within this distance of the centre
+    static final double FORMATION_HALF_WIDTH = 4.0;
+
+    // weights of {angle, angleDot, pos, posDot}, of the action and of the
+    // difference of the position errors of neighbouring carts
+    static final double[] Q = {100, 1, 10, 1};
+    static final double R = 1;
+    static final double COUPLING = 20;
+
+    private final PoleParams params;
+    private final double dt;
+
+    private int poles = -1;
+    private GainMatrix gains;
+    private double[] targets;
+    private double[] error;
+
+    LqrController() {
+        this(new PoleParams(), DEFAULT_DT);
+    }
+
+    LqrController(PoleParams params, double dt) {
+        this.params = params;
+        this.dt = dt;
+    }
+
+    public void compute(double[] data, int numPoles, double[] actions) {
+        if (numPoles != poles) {
+            build(numPoles);
+        }
+        for (int i = 0; i < numPoles; i++) {
+            error[i*4+0] = data[i*4+0];
+            error[i*4+1] = data[i*4+1];
+            error[i*4+2] = data[i*4+2] - targets[i];
+            error[i*4+3] = data[i*4+3];
+        }
+        // the matrix holds -K
+        gains.multiply(error, actions);
+    }
+
+    // Target position of every cart
+    double[] get_targets() {
+        return targets;
+    }
+
+    /**
+     * This method computes the gain matrix of a session with numPoles poles.
+     */
+    void build(int numPoles) {
+        double[] a = new double[16];
+        double[] b = new double[4];
+        discretize(params, dt, a, b);
+
+        int n = numPoles;
+        double spacing = n > 1 ? Math.min(TARGET_SPACING, 2 * FORMATION_HALF_WIDTH / (n - 1)) : 0;
+        targets = new double[n];
+        for (int i = 0; i < n; i++) {
+            targets[i] = (i - (n - 1) / 2.0) * spacing;
+        }
+
+        // Mode k of the path Laplacian: eigenvalue 2 - 2 cos(k pi / n),
+        // eigenvector cos(k pi (i + 1/2) / n), normalized
+        double[] modes = new double[n * n];
+        double[][] modeGains = new double[n][];
+        double[] q = new double[16];
+        for (int k = 0; k < n; k++) {
+            double norm = k == 0 ? Math.sqrt(1.0 / n) : Math.sqrt(2.0 / n);
+            for (int i = 0; i < n; i++) {
+                modes[k * n + i] = norm * Math.cos(Math.PI * k * (i + 0.5) / n);
+            }
+            double lambda = 2 - 2 * Math.cos(Math.PI * k / n);
+            Arrays.fill(q, 0);
+            for (int s = 0; s < 4; s++) {
+                q[s * 4 + s] = Q[s];
+            }
+            q[2 * 4 + 2] += COUPLING * lambda;
+            modeGains[k] = Lqr.gain(a, b, q, R);
+        }
+
+        // K[i][4j+s] = sum_k v_k(i) v_k(j) K_k[s]
+        gains = new GainMatrix(n, 4 * n);
+        double[] row = new double[4 * n];
+        for (int i = 0; i < n; i++) {
+            Arrays.fill(row, 0);
+            for (int k = 0; k < n; k++) {
+                double vi = modes[k * n + i];
+                double[] kk = modeGains[k];
+                for (int j = 0; j < n; j++) {
+                    double w = vi * modes[k * n + j];
+                    for (int s = 0; s < 4; s++) {
+                        row[4 * j + s] -= w * kk[s];
+                    }
+                }
+            }
+            for (int c = 0; c < 4 * n; c++) {
+                gains.set(i, c, row[c]);
+            }
+        }
+        error = new double[4 * n];
+        poles = n;
+    }
+
+    /**
+     * This method linearizes the cart-pole of CartPoleDynamics around the
+     * upright position, without the cart friction, for the state
+     * {angle, angleDot, pos, posDot} and the action, and discretizes it
+     * with a zero-order hold: x' = a x + b u.
+     */
+    static void discretize(PoleParams p, double dt, double[] a, double[] b) {
+        double denom = p.halfPole * (p.fourthirds - p.poleMass / p.totalMass);
+        double angleByAngle = 9.8 / denom;
+        double angleByAngleDot = -p.fricPole / p.poleMassLength / denom;
+        double angleByForce = -1 / p.totalMass / denom;
+        double lever = p.poleMassLength / p.totalMass;
+
+        // continuous system [A B; 0 0] in 5x5
+        double[] m = new double[25];
+        m[0 * 5 + 1] = 1;
+        m[1 * 5 + 0] = angleByAngle;
+        m[1 * 5 + 1] = angleByAngleDot;
+        m[1 * 5 + 4] = angleByForce * p.forceMag;
+        m[2 * 5 + 3] = 1;
+        m[3 * 5 + 0] = -lever * angleByAngle;
+        m[3 * 5 + 1] = -lever * angleByAngleDot;
+        m[3 * 5 + 4] = (1 / p.totalMass - lever * angleByForce) * p.forceMag;
+
+        // exp(m dt) by its Taylor series; |m dt| is well below 1
+        double[] e = new double[25];
+        double[] term = new double[25];
+        double[] next = new double[25];
+        for (int i = 0; i < 5; i++) {
+            e[i * 5 + i] = 1;
+            term[i * 5 + i] = 1;
+        }
+        for (int k = 1; k <= 20; k++) {
+            Lqr.multiply(term, m, next, 5);
+            for (int i = 0; i < 25; i++) {
+                term[i] = next[i] * dt / k;
+                e[i] += term[i];
+            }
+        }
+        for (int r = 0; r < 4; r++) {
+            for (int c = 0; c < 4; c++) {
+                a[r * 4 + c] = e[r * 5 + c];
+            }
+            b[r] = e[r * 5 + 4];
+        }
+    }
+}
+
+/**
+ * Small dense matrix helpers to compute LQR gains, on row-major n x n
+ * arrays. They are only used when gains are built, not per frame.
+ */
+class Lqr {
+
+    /**
+     * This method solves the discrete algebraic Riccati equation of x' = a x + b u
+     * with the cost x'qx + r u^2 by the structure-preserving doubling
+     * algorithm and returns the gain k of u = -k x.
+     */
+    static double[] gain(double[] a, double[] b, double[] q, double r) {
+        int n = b.length;
+        double[] ak = a.clone();
+        double[] g = new double[n * n];     // b r^-1 b'
+        double[] h = q.clone();
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                g[i * n + j] = b[i] * b[j] / r;
+            }
+        }
+        double[] t1 = new double[n * n], t2 = new double[n * n], w = new double[n * n];
+        double[] dh = new double[n * n], dg = new double[n * n];
+        for (int iter = 0; iter < 100; iter++) {
+            // w = (I + g h)^-1
+            multiply(g, h, t1, n);
+            for (int i = 0; i < n; i++) {
+                t1[i * n + i] += 1;
+            }
+            invert(t1, w, n);
+
+            // h += a' h w a
+            multiply(h, w, t1, n);
+            multiply(t1, ak, t2, n);
+            transpose(ak, t1, n);
+            multiply(t1, t2, dh, n);
+            // g += a w g a'
+            multiply(ak, w, t1, n);
+            multiply(t1, g, t2, n);
+            transpose(ak, t1, n);
+            multiply(t2, t1, dg, n);
+            // a = a w a
+            multiply(ak, w, t1, n);
+            multiply(t1, ak, t2, n);
+
+            double change = 0, size = 0;
+            for (int i = 0; i < n * n; i++) {
+                h[i] += dh[i];
+                g[i] += dg[i];
+                change = Math.max(change, Math.abs(dh[i]));
+                size = Math.max(size, Math.abs(h[i]));
+            }
+            System.arraycopy(t2, 0, ak, 0, n * n);
+            if (change <= 1e-13 * size) {
+                break;
+            }
+        }
+
+        // k = (r + b'pb)^-1 b'pa
+        double[] pb = new double[n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                pb[i] += h[i * n + j] * b[j];
+            }
+        }
+        double denom = r;
+        for (int i = 0; i < n; i++) {
+            denom += b[i] * pb[i];
+        }
+        double[] k = new double[n];
+        for (int j = 0; j < n; j++) {
+            for (int i = 0; i < n; i++) {
+                k[j] += pb[i] * a[i * n + j];
+            }
+            k[j] /= denom;
+        }
+        return k;
+    }
+
+    static void multiply(double[] x, double[] y, double[] out, int n) {
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                double s = 0;
+                for (int k = 0; k < n; k++) {
+                    s += x[i * n + k] * y[k * n + j];
+                }
+                out[i * n + j] = s;
+            }
+        }
+    }
+
+    static void transpose(double[] x, double[] out, int n) {
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                out[j * n + i] = x[i * n + j];
+            }
+        }
+    }
+
+    // Gauss-Jordan elimination with partial pivoting
+    static void invert(double[] x, double[] out, int n) {
+        double[] m = x.clone();
+        Arrays.fill(out, 0);
+        for (int i = 0; i < n; i++) {
+            out[i * n + i] = 1;
+        }
+        for (int c = 0; c < n; c++) {
+            int pivot = c;
+            for (int r = c + 1; r < n; r++) {
+                if (Math.abs(m[r * n + c]) > Math.abs(m[pivot * n + c])) {
+                    pivot = r;
+                }
+            }
+            swap_rows(m, c, pivot, n);
+            swap_rows(out, c, pivot, n);
+            double d = m[c * n + c];
+            if (d == 0) {
+                throw new ArithmeticException("singular matrix");
+            }
+            for (int j = 0; j < n; j++) {
+                m[c * n + j] /= d;
+                out[c * n + j] /= d;
+            }
+            for (int r = 0; r < n; r++) {
+                double f = m[r * n + c];
+                if (r == c || f == 0) {
+                    continue;
+                }
+                for (int j = 0; j < n; j++) {
+                    m[r * n + j] -= f * m[c * n + j];
+                    out[r * n + j] -= f * out[c * n + j];
+                }
+            }
+        }
+    }
+
+    private static void swap_rows(double[] m, int a, int b, int n) {
+        if (a == b) {
+            return;
+        }
+        for (int j = 0; j < n; j++) {
+            double t = m[a * n + j];
+            m[a * n + j] = m[b * n + j];
+            m[b * n + j] = t;
+        }
+    }
+}
+
+/**
+ * This class is a dense matrix stored for a fast matrix-vector product.
+ * The rows are grouped into panels of BLOCK rows, and a panel is stored
+ * column by column, so the product streams through the matrix once in
+ * order, loads every element of the vector once per panel and keeps BLOCK
+ * independent sums in registers.
+ */
+class GainMatrix {
+    static final int BLOCK = 8;
+
+    final int rows;
+    final int cols;
+    private final double[] panels;
+
+    GainMatrix(int rows, int cols) {
+        this.rows = rows;
+        this.cols = cols;
+        panels = new double[(rows + BLOCK - 1) / BLOCK * BLOCK * cols];
+    }
+
+    void set(int r, int c, double v) {
+        panels[(r / BLOCK) * BLOCK * cols + c * BLOCK + r % BLOCK] = v;
+    }
+
+    double get(int r, int c) {
+        return panels[(r / BLOCK) * BLOCK * cols + c * BLOCK + r % BLOCK];
+    }
+
+    /**
+     * This method computes y = M x (x holds cols values, y rows values).
+     */
+    void multiply(double[] x, double[] y) {
+        double[] m = panels;
+        int full = rows / BLOCK;
+        for (int p = 0; p < full; p++) {
+            double s0 = 0, s1 = 0, s2 = 0, s3 = 0, s4 = 0, s5 = 0, s6 = 0, s7 = 0;
+            int k = p * BLOCK * cols;
+            for (int c = 0; c < cols; c++, k += BLOCK) {
+                double xc = x[c];
+                s0 += m[k] * xc;
+                s1 += m[k + 1] * xc;
+                s2 += m[k + 2] * xc;
+                s3 += m[k + 3] * xc;
+                s4 += m[k + 4] * xc;
+                s5 += m[k + 5] * xc;
+                s6 += m[k + 6] * xc;
+                s7 += m[k + 7] * xc;
+            }
+            int r = p * BLOCK;
+            y[r] = s0;
+            y[r + 1] = s1;
+            y[r + 2] = s2;
+            y[r + 3] = s3;
+            y[r + 4] = s4;
+            y[r + 5] = s5;
+            y[r + 6] = s6;
+            y[r + 7] = s7;
+        }
+        // rows of the last, partial panel
+        for (int r = full * BLOCK; r < rows; r++) {
+            double s = 0;
+            int k = full * BLOCK * cols + r % BLOCK;
+            for (int c = 0; c < cols; c++, k += BLOCK) {
+                s += m[k] * x[c];
+            }
+            y[r] = s;
+        }
+    }
+}
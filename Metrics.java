@@ -0,0 +1,228 @@
+/**
+ * This class holds the runtime counters of the control server and of the
+ * client and publishes them as JMX MBeans, pendulum:type=ControlServer and
+ * pendulum:type=Client, for jconsole or any JMX client. Every counter is a
+ * LongAdder: an update from a hot loop is an add to a striped cell that
+ * threads rarely share, and only a read sums the cells. Rates and means are
+ * taken over the interval since the previous read of the same attribute,
+ * so a monitor polling every few seconds sees current values.
+ */
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.*;
+
+class Metrics {
+    // control server, all modes
+    static final LongAdder ACCEPTED = new LongAdder();
+    static final LongAdder ACTIVE_SESSIONS = new LongAdder();
+    static final LongAdder FRAMES_IN = new LongAdder();
+    static final LongAdder FRAMES_OUT = new LongAdder();
+    static final LongAdder CONTROLLER_CALLS = new LongAdder();
+    static final LongAdder CONTROLLER_NANOS = new LongAdder();
+
+    // client
+    static final LongAdder PHYSICS_STEPS = new LongAdder();
+    // rk45 steps that did not converge and were finished with rk4
+    static final LongAdder INTEGRATOR_FALLBACKS = new LongAdder();
+    static final LongAdder SENSOR_FRAMES = new LongAdder();
+    // samples dropped because the sending thread was still busy
+    static final LongAdder SENSOR_DROPPED = new LongAdder();
+    static final LongAdder ACTUATOR_FRAMES = new LongAdder();
+    // from the sample of the sensor frame to the actions being applied
+    static final LongAdder ACTUATOR_LAG_NANOS = new LongAdder();
+
+    // One evaluation of a controller that took nanos
+    static void controller_call(long nanos) {
+        CONTROLLER_CALLS.increment();
+        CONTROLLER_NANOS.add(nanos);
+    }
+
+    /**
+     * This method registers the ControlServer MBean.
+     */
+    static void register_server() {
+        MetricsBean bean = new MetricsBean("Control server sessions and frames");
+        bean.add_count("AcceptedConnections", "connections and datagram peers accepted", ACCEPTED);
+        bean.add_count("ActiveSessions", "sessions open now", ACTIVE_SESSIONS);
+        bean.add_count("FramesIn", "frames received", FRAMES_IN);
+        bean.add_count("FramesOut", "frames sent", FRAMES_OUT);
+        bean.add_rate("FramesInPerSecond", "frames received per second", FRAMES_IN);
+        bean.add_rate("FramesOutPerSecond", "frames sent per second", FRAMES_OUT);
+        bean.add_mean("ControllerMicros", "mean controller evaluation time in us",
+                CONTROLLER_NANOS, CONTROLLER_CALLS, 1e-3);
+        bean.add_rate("ControllerCallsPerSecond", "controller evaluations per second", CONTROLLER_CALLS);
+        register("pendulum:type=ControlServer", bean);
+    }
+
+    /**
+     * This method registers the Client MBean of a physics simulation.
+     */
+    static void register_client(final Physics physics) {
+        MetricsBean bean = new MetricsBean("Client physics, sensor and actuator");
+        bean.add_rate("PhysicsStepsPerSecond", "simulation steps per second", PHYSICS_STEPS);
+        bean.add_count("IntegratorFallbacks", "rk45 steps that did not converge and were finished with rk4",
+                INTEGRATOR_FALLBACKS);
+        bean.add(new MetricsBean.Metric("SimulationSpeed", "simulated seconds per physical second", "double") {
+            private long lastNanos = System.nanoTime();
+            private double lastSim = physics.get_simTime();
+
+            synchronized Object value() {
+                long now = System.nanoTime();
+                double sim = physics.get_simTime();
+                double ratio = now > lastNanos ? (sim - lastSim) / ((now - lastNanos) / 1e9) : 0;
+                lastNanos = now;
+                lastSim = sim;
+                return ratio;
+            }
+        });
+        bean.add_rate("SensorFramesPerSecond", "sensor frames sent per second", SENSOR_FRAMES);
+        bean.add_count("SensorFramesDropped", "sensor samples dropped while the previous ones were sent",
+                SENSOR_DROPPED);
+        bean.add_rate("ActionFramesPerSecond", "action frames applied per second", ACTUATOR_FRAMES);
+        bean.add_mean("ActuatorLagMicros", "mean time from a sample to its actions being applied, in us",
+                ACTUATOR_LAG_NANOS, ACTUATOR_FRAMES, 1e-3);
+        bean.add(new MetricsBean.Metric("FailedPoles", "poles that have fallen or collided", "int") {
+            Object value() {
+                return physics.get_failedPoles();
+            }
+        });
+        bean.add_count("StaleActionFrames", "action frames older than the applied actions",
+                physics.staleActions);
+        register("pendulum:type=Client", bean);
+    }
+
+    // The metrics are an aid, a process that cannot publish them still runs
+    private static void register(String name, MetricsBean bean) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(bean, objectName);
+        } catch (Exception e) {
+            System.out.println("unable to register " + name + ": " + e);
+        }
+    }
+}
+
+/**
+ * This class is a read-only dynamic MBean whose attributes are computed
+ * from the counters when they are read.
+ */
+class MetricsBean implements DynamicMBean {
+    private final String description;
+    private final LinkedHashMap<String, Metric> metrics = new LinkedHashMap<String, Metric>();
+
+    /**
+     * This class is one attribute: its name, description, JMX type and how
+     * to compute its value.
+     */
+    abstract static class Metric {
+        final String name;
+        final String description;
+        final String type;
+
+        Metric(String name, String description, String type) {
+            this.name = name;
+            this.description = description;
+            this.type = type;
+        }
+
+        abstract Object value();
+    }
+
+    MetricsBean(String description) {
+        this.description = description;
+    }
+
+    void add(Metric metric) {
+        metrics.put(metric.name, metric);
+    }
+
+    // The sum of a counter
+    void add_count(String name, String description, final LongAdder counter) {
+        add(new Metric(name, description, "long") {
+            Object value() {
+                return counter.sum();
+            }
+        });
+    }
+
+    // The increase of a counter per second since the previous read
+    void add_rate(String name, String description, final LongAdder counter) {
+        add(new Metric(name, description, "double") {
+            private long lastNanos = System.nanoTime();
+            private long lastCount = counter.sum();
+
+            synchronized Object value() {
+                long now = System.nanoTime();
+                long count = counter.sum();
+                double rate = now > lastNanos ? (count - lastCount) / ((now - lastNanos) / 1e9) : 0;
+                lastNanos = now;
+                lastCount = count;
+                return rate;
+            }
+        });
+    }
+
+    // scale * (increase of sum) / (increase of count) since the previous read
+    void add_mean(String name, String description, final LongAdder sum, final LongAdder count,
+                  final double scale) {
+        add(new Metric(name, description, "double") {
+            private long lastSum = sum.sum();
+            private long lastCount = count.sum();
+
+            synchronized Object value() {
+                long s = sum.sum();
+                long n = count.sum();
+                double mean = n > lastCount ? scale * (s - lastSum) / (n - lastCount) : 0;
+                lastSum = s;
+                lastCount = n;
+                return mean;
+            }
+        });
+    }
+
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Metric metric = metrics.get(attribute);
+        if (metric == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return metric.value();
+    }
+
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            Metric metric = metrics.get(attribute);
+            if (metric != null) {
+                list.add(new Attribute(attribute, metric.value()));
+            }
+        }
+        return list;
+    }
+
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+    }
+
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    public MBeanInfo getMBeanInfo() {
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[metrics.size()];
+        int i = 0;
+        for (Metric metric : metrics.values()) {
+            attributes[i++] = new MBeanAttributeInfo(metric.name, metric.type, metric.description,
+                    true, false, false);
+        }
+        return new MBeanInfo(getClass().getName(), description, attributes, null, null, null);
+    }
+}
@@ -0,0 +1,538 @@
+/**
+ * This class runs the controller as a non-blocking server. Accepted
+ * connections are spread over a small fixed pool of event-loop threads,
+ * each multiplexing its sessions with a Selector, so that one process can
+ * serve many thousands of concurrent control sessions.
+ *
+ * In batch mode an event loop does not answer a sensor frame as soon as it
+ * is read. It collects the frames of all its sessions for a short window,
+ * evaluates the controller once over all the poles of the window and then
+ * scatters the actions back to the sessions (see ControlBatch).
+ */
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
+
+class NioControlServer {
+
+    private final int port;
+    private final EventLoop[] loops;
+
+    NioControlServer(int port, int numLoops) throws IOException {
+        this(port, numLoops, -1);
+    }
+
+    /**
+     * Class Constructor. With batchWindow >= 0 (nanoseconds) the event loops
+     * evaluate the controller over batches of sensor frames.
+     */
+    NioControlServer(int port, int numLoops, long batchWindow) throws IOException {
+        this.port = port;
+        this.loops = new EventLoop[numLoops];
+        for (int i = 0; i < numLoops; i++) {
+            loops[i] = new EventLoop(i, batchWindow);
+        }
+    }
+
+    /**
+     * This method starts the event loops and hands accepted connections to
+     * them in round robin order. It never returns.
+     */
+    void serve() throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.socket().setReuseAddress(true);
+        server.bind(new InetSocketAddress(port), 1024);
+        for (EventLoop loop : loops) {
+            Thread t = new Thread(loop, "control-loop-" + loop.id);
+            t.setDaemon(true);
+            t.start();
+        }
+        System.out.println("Waiting for connections on " + loops.length + " event loops"
+                + (loops[0].batchWindow >= 0 ? ", batch window " + loops[0].batchWindow / 1000 + " us" : ""));
+
+        int next = 0;
+        while (true) {
+            SocketChannel client = server.accept();
+            Metrics.ACCEPTED.increment();
+            loops[next].add_session(client);
+            next = (next + 1) % loops.length;
+        }
+    }
+}
+
+/**
+ * This class is one event-loop thread of the non-blocking server. It owns a
+ * Selector and all the sessions registered with it, and in batch mode one
+ * ControlBatch for each controller that can be evaluated pole by pole.
+ */
+class EventLoop implements Runnable {
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    final int id;
+    final long batchWindow;
+    private final Selector selector;
+    private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<SocketChannel>();
+    private final ControlBatch[] batches = new ControlBatch[Controllers.NAMES.length];
+    // when the frames collected so far must be answered
+    private long deadline = NO_DEADLINE;
+
+    EventLoop(int id, long batchWindow) throws IOException {
+        this.id = id;
+        this.batchWindow = batchWindow;
+        this.selector = Selector.open();
+        if (batchWindow >= 0) {
+            for (int c = 0; c < batches.length; c++) {
+                if (Controllers.per_pole(c)) {
+                    batches[c] = new ControlBatch(Controllers.create(c));
+                }
+            }
+        }
+    }
+
+    // Batch of the controller, or null if its frames are answered right away
+    ControlBatch batch(int controllerId) {
+        return controllerId >= 0 && controllerId < batches.length ? batches[controllerId] : null;
+    }
+
+    // Called by a session after it added a frame to a batch
+    void batched(ControlBatch batch) {
+        if (deadline == NO_DEADLINE) {
+            deadline = System.nanoTime() + batchWindow;
+        }
+        if (batch.is_full()) {
+            evaluate_batches();
+        }
+    }
+
+    /**
+     * This method answers all the frames collected in the batches.
+     */
+    void evaluate_batches() {
+        deadline = NO_DEADLINE;
+        for (ControlBatch batch : batches) {
+            if (batch != null) {
+                batch.evaluate();
+            }
+        }
+    }
+
+    // Wait for channel events, but not past the deadline of the batches
+    private void select() throws IOException {
+        if (deadline == NO_DEADLINE) {
+            selector.select();
+            return;
+        }
+        long left = deadline - System.nanoTime();
+        if (left >= 1000000) {
+            selector.select(left / 1000000);
+        } else if (selector.selectNow() == 0 && left > 0) {
+            // select() has millisecond resolution
+            LockSupport.parkNanos(Math.min(left, 50000));
+        }
+    }
+
+    // Called from the acceptor thread
+    void add_session(SocketChannel channel) {
+        pending.add(channel);
+        selector.wakeup();
+    }
+
+    public void run() {
+        while (true) {
+            try {
+                select();
+                register_pending();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    ControlSession session = (ControlSession) key.attachment();
+                    try {
+                        if (key.isValid() && key.isWritable()) {
+                            session.on_writable();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            session.on_readable();
+                        }
+                    } catch (IOException ioe) {
+                        session.close();
+                    } catch (RuntimeException | Error e) {
+                        // a failure in one session must not stop the others of the loop
+                        System.out.println("closing session after " + e);
+                        session.close();
+                    }
+                }
+                if (System.nanoTime() >= deadline) {
+                    evaluate_batches();
+                }
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            } catch (RuntimeException | Error e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void register_pending() {
+        SocketChannel channel;
+        while ((channel = pending.poll()) != null) {
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new ControlSession(channel, key, this));
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+}
+
+/**
+ * This class holds the state of one control session of the non-blocking
+ * server: its channel, partially received input, pending output and the
+ * buffers reused for every frame.
+ */
+class ControlSession {
+    private static final int INITIAL_BUFFER = 1024;
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final EventLoop loop;
+    private ByteBuffer inBuf = ByteBuffer.allocate(INITIAL_BUFFER);
+    private ByteBuffer outBuf = ByteBuffer.allocate(INITIAL_BUFFER);
+    private final Frame frame = new Frame(4);
+    private final long[] replyStamps = new long[Frame.STAMPS];
+    private int controllerId = Controllers.DEFAULT;
+    private Controller controller = Controllers.create(controllerId);
+    // last known sensor data, updated by full and delta frames
+    private final SensorState state = new SensorState();
+    private final int session = Recorder.ENABLED ? Recorder.new_session() : 0;
+    private double[] actions = new double[1];
+    private double[] pairs = new double[2];
+    private boolean closing = false;
+    private boolean closed = false;
+    // frames waiting in a batch, and a "bye" to answer after them
+    private int batched = 0;
+    private boolean byeAfterBatch = false;
+
+    ControlSession(SocketChannel channel, SelectionKey key, EventLoop loop) {
+        this.channel = channel;
+        this.key = key;
+        this.loop = loop;
+        Metrics.ACTIVE_SESSIONS.increment();
+    }
+
+    /**
+     * This method reads what is available on the channel, calculates the
+     * actions for every complete sensor frame and queues the replies.
+     */
+    void on_readable() throws IOException {
+        int n = channel.read(inBuf);
+        if (n < 0) {
+            close();
+            return;
+        }
+        inBuf.flip();
+        while (!closing && frame.decode(inBuf)) {
+            Metrics.FRAMES_IN.increment();
+            handle_frame();
+        }
+        if (inBuf.position() == 0 && inBuf.limit() == inBuf.capacity()) {
+            // a single frame does not fit into the buffer
+            inBuf = grow(inBuf, inBuf.capacity() * 2);
+        } else {
+            inBuf.compact();
+        }
+        flush();
+    }
+
+    void on_writable() throws IOException {
+        flush();
+    }
+
+    private void handle_frame() {
+        if (frame.type == Frame.BYE) {
+            if (batched > 0) {
+                // answer the frames of the batch first
+                byeAfterBatch = true;
+                closing = true;
+                return;
+            }
+            say_bye();
+            return;
+        }
+        if (frame.type == Frame.CONTROLLER) {
+            Controller chosen = Controllers.create((int) frame.seq);
+            if (chosen != null) {
+                if (batched > 0) {
+                    loop.evaluate_batches();
+                }
+                controllerId = (int) frame.seq;
+                controller = chosen;
+            }
+            return;
+        }
+        if (frame.type != Frame.SENSOR && frame.type != Frame.SENSOR_DELTA) {
+            return;
+        }
+
+        long[] stamps = frame.stamps;
+        stamps[Frame.SERVER_RECEIVED] = System.nanoTime();
+        try {
+            state.apply(frame);
+        } catch (IOException ioe) {
+            System.out.println("bad sensor frame: " + ioe.getMessage());
+            closing = true;
+            return;
+        }
+        if (Recorder.ENABLED) {
+            Recorder.frame(Recorder.SERVER, session, frame.type, frame.values, frame.poles, frame.seq);
+        }
+        // per-pole controllers only need the poles of a delta frame
+        boolean sparse = state.sparse && Controllers.per_pole(controllerId);
+        ControlBatch batch = loop.batch(controllerId);
+        if (batch != null) {
+            batched++;
+            batch.add(this, state, frame.seq, stamps);
+            loop.batched(batch);
+            return;
+        }
+        if (batched > 0) {
+            loop.evaluate_batches();
+        }
+
+        int poles = sparse ? state.count : state.poles;
+        if (actions.length < poles) {
+            actions = new double[poles];
+        }
+        long started = System.nanoTime();
+        controller.compute(sparse ? state.packed : state.data, poles, actions);
+        stamps[Frame.COMPUTED] = System.nanoTime();
+        Metrics.controller_call(stamps[Frame.COMPUTED] - started);
+        reply(actions, 0, poles, sparse ? state.changed : null, frame.seq, stamps, 0);
+    }
+
+    /**
+     * This method queues the reply to a sensor frame, its actions being
+     * actions[offset..offset+poles-1] and its stamps
+     * stamps[stampOffset..stampOffset+Frame.STAMPS-1]. If ids is not null
+     * the actions are for the poles ids[offset..offset+poles-1] only and
+     * an ACTION_DELTA frame is sent.
+     */
+    private void reply(double[] actions, int offset, int poles, int[] ids,
+                       long seq, long[] stamps, int stampOffset) {
+        byte type = Frame.ACTION;
+        if (ids != null) {
+            type = Frame.ACTION_DELTA;
+            if (pairs.length < 2 * poles) {
+                pairs = new double[2 * poles];
+            }
+            for (int e = 0; e < poles; e++) {
+                pairs[e*2] = ids[offset + e];
+                pairs[e*2+1] = actions[offset + e];
+            }
+            actions = pairs;
+        } else if (offset != 0) {
+            if (this.actions.length < poles) {
+                this.actions = new double[poles];
+            }
+            System.arraycopy(actions, offset, this.actions, 0, poles);
+            actions = this.actions;
+        }
+        System.arraycopy(stamps, stampOffset, replyStamps, 0, Frame.STAMPS);
+        reserve(Frame.frame_bytes(type, poles));
+        replyStamps[Frame.SERVER_SENT] = System.nanoTime();
+        Frame.encode(outBuf, type, actions, poles, seq, replyStamps);
+        Metrics.FRAMES_OUT.increment();
+        if (Recorder.ENABLED) {
+            Recorder.frame(Recorder.SERVER, session, type, actions, poles, seq);
+        }
+        // the reply is written by flush() right after this batch of frames
+        LatencyStats.record_server(replyStamps, System.nanoTime());
+    }
+
+    /**
+     * This method queues the reply to a frame answered by a batch and writes
+     * the output if it was the last one the session was waiting for.
+     */
+    void reply_batched(double[] actions, int offset, int poles, int[] ids,
+                       long seq, long[] stamps, int stampOffset) {
+        batched--;
+        if (!key.isValid()) {
+            return;
+        }
+        reply(actions, offset, poles, ids, seq, stamps, stampOffset);
+        if (batched == 0) {
+            if (byeAfterBatch) {
+                say_bye();
+            }
+            try {
+                flush();
+            } catch (IOException ioe) {
+                close();
+            }
+        }
+    }
+
+    private void say_bye() {
+        closing = true;
+        reserve(Frame.frame_bytes(Frame.BYE, 0));
+        Frame.encode(outBuf, Frame.BYE, null, 0);
+        Metrics.FRAMES_OUT.increment();
+    }
+
+    // Make room for n more bytes of output
+    private void reserve(int n) {
+        if (outBuf.remaining() < n) {
+            outBuf.flip();
+            outBuf = grow(outBuf, Math.max(outBuf.capacity() * 2, outBuf.limit() + n));
+        }
+    }
+
+    // Copy the readable bytes of buf into a new buffer ready for writing
+    private static ByteBuffer grow(ByteBuffer buf, int capacity) {
+        ByteBuffer bigger = ByteBuffer.allocate(capacity);
+        bigger.put(buf);
+        return bigger;
+    }
+
+    /**
+     * This method writes as much pending output as the channel accepts and
+     * asks for write readiness if some of it is left over.
+     */
+    private void flush() throws IOException {
+        if (!key.isValid()) {
+            return;
+        }
+        outBuf.flip();
+        if (outBuf.hasRemaining()) {
+            channel.write(outBuf);
+        }
+        boolean drained = !outBuf.hasRemaining();
+        outBuf.compact();
+
+        if (drained && closing && batched == 0) {
+            close();
+        } else if (key.isValid()) {
+            key.interestOps(drained ? SelectionKey.OP_READ
+                                    : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    void close() {
+        if (!closed) {
+            closed = true;
+            Metrics.ACTIVE_SESSIONS.decrement();
+        }
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ioe) {
+            System.out.println("unable to disconnect");
+        }
+    }
+}
+
+/**
+ * This class collects the sensor frames of the sessions of one event loop
+ * that use the same per-pole controller. The poles of all the frames are
+ * laid out one after the other, so the controller is evaluated in one
+ * call over the whole batch, and the actions are then handed back to the
+ * sessions in the order their frames arrived. Of a delta frame only the
+ * poles it carries are added, with their ids for the reply.
+ */
+class ControlBatch {
+    // evaluate early once this many poles are waiting
+    static final int MAX_POLES = 4096;
+
+    private final Controller controller;
+    private int count = 0;
+    private int poles = 0;
+    private ControlSession[] sessions = new ControlSession[64];
+    private int[] offsets = new int[64];
+    private int[] sizes = new int[64];
+    private long[] seqs = new long[64];
+    private boolean[] sparse = new boolean[64];
+    private int[] ids = new int[64];
+    private long[] stamps = new long[64 * Frame.STAMPS];
+    private double[] data = new double[4 * 64];
+    private double[] actions = new double[64];
+
+    ControlBatch(Controller controller) {
+        this.controller = controller;
+    }
+
+    boolean is_full() {
+        return poles >= MAX_POLES;
+    }
+
+    /**
+     * This method adds the poles of the last frame applied to state, all of
+     * them or only the changed ones of a delta frame.
+     */
+    void add(ControlSession session, SensorState state, long seq, long[] frameStamps) {
+        int n = state.sparse ? state.count : state.poles;
+        if (count == sessions.length) {
+            int size = 2 * count;
+            sessions = Arrays.copyOf(sessions, size);
+            offsets = Arrays.copyOf(offsets, size);
+            sizes = Arrays.copyOf(sizes, size);
+            seqs = Arrays.copyOf(seqs, size);
+            sparse = Arrays.copyOf(sparse, size);
+            stamps = Arrays.copyOf(stamps, size * Frame.STAMPS);
+        }
+        if (poles + n > actions.length) {
+            int size = Math.max(2 * actions.length, poles + n);
+            data = Arrays.copyOf(data, 4 * size);
+            actions = Arrays.copyOf(actions, size);
+            ids = Arrays.copyOf(ids, size);
+        }
+        sessions[count] = session;
+        offsets[count] = poles;
+        sizes[count] = n;
+        seqs[count] = seq;
+        sparse[count] = state.sparse;
+        System.arraycopy(frameStamps, 0, stamps, count * Frame.STAMPS, Frame.STAMPS);
+        if (state.sparse) {
+            System.arraycopy(state.packed, 0, data, 4 * poles, 4 * n);
+            System.arraycopy(state.changed, 0, ids, poles, n);
+        } else {
+            System.arraycopy(state.data, 0, data, 4 * poles, 4 * n);
+        }
+        poles += n;
+        count++;
+    }
+
+    /**
+     * This method evaluates the controller over all the collected poles and
+     * replies to every frame.
+     */
+    void evaluate() {
+        if (count == 0) {
+            return;
+        }
+        long started = System.nanoTime();
+        controller.compute(data, poles, actions);
+        long computed = System.nanoTime();
+        Metrics.controller_call(computed - started);
+        int n = count;
+        count = 0;
+        poles = 0;
+        for (int e = 0; e < n; e++) {
+            stamps[e * Frame.STAMPS + Frame.COMPUTED] = computed;
+            sessions[e].reply_batched(actions, offsets[e], sizes[e], sparse[e] ? ids : null,
+                                      seqs[e], stamps, e * Frame.STAMPS);
+            sessions[e] = null;
+        }
+    }
+}
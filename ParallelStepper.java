@@ -0,0 +1,91 @@
+/**
+ * This class integrates the poles of a Physics object in parallel. The pole
+ * set is split into chunks that are stepped independently on a ForkJoinPool;
+ * the join of all the chunks is the barrier after which Physics.step() runs
+ * the collision check and the failure count for the whole set.
+ *
+ * Usage: java ParallelStepper [poles] [steps] [threads]
+ *   compares the step throughput of sequential and parallel stepping
+ */
+import java.util.concurrent.*;
+
+class ParallelStepper {
+    private final Physics physics;
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    ParallelStepper(Physics physics, ForkJoinPool pool, int chunkSize) {
+        this.physics = physics;
+        this.pool = pool;
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * This method updates every pole by one step and waits for all the
+     * chunks to finish.
+     * Return the number of poles in FAILED state afterwards.
+     */
+    int integrate() {
+        return pool.invoke(new Chunk(0, physics.NUM_POLES));
+    }
+
+    /**
+     * A range of poles, split in halves until it is small enough to step
+     * on one thread.
+     */
+    private class Chunk extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+        private final int lo, hi;
+
+        Chunk(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected Integer compute() {
+            if (hi - lo <= chunkSize) {
+                return physics.integrate(lo, hi);
+            }
+            int mid = (lo + hi) >>> 1;
+            Chunk left = new Chunk(lo, mid);
+            left.fork();
+            int right = new Chunk(mid, hi).compute();
+            return left.join() + right;
+        }
+    }
+
+    public static void main(String[] args) {
+        int poles = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int threads = args.length > 2 ? Integer.parseInt(args[2])
+                : Runtime.getRuntime().availableProcessors();
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        for (int round = 0; round < 3; round++) {
+            double seq = steps_per_sec(poles, steps, null);
+            double par = steps_per_sec(poles, steps, pool);
+            System.out.println(String.format("%d poles: sequential %.1f steps/sec, parallel (%d threads) %.1f steps/sec",
+                    poles, seq, threads, par));
+        }
+        pool.shutdown();
+    }
+
+    private static double steps_per_sec(int poles, int steps, ForkJoinPool pool) {
+        // one meter apart on a track long enough for all of them
+        double[] init_pos = new double[poles];
+        for (int i = 0; i < poles; i++) {
+            init_pos[i] = i - (poles - 1) / 2.0;
+        }
+        Physics physics = new Physics(0.01, 0, init_pos, new PoleParams());
+        physics.trackLimit = poles / 2.0 + 1;
+        if (pool != null) {
+            physics.use_parallel_stepping(pool, Math.max(1024, poles / (4 * pool.getParallelism())));
+        }
+
+        long start = System.nanoTime();
+        for (int s = 0; s < steps; s++) {
+            physics.step();
+        }
+        return steps / ((System.nanoTime() - start) / 1e9);
+    }
+}
@@ -4,163 +4,104 @@ import java.awt.event.*;
 import java.net.*;
 import java.io.*;
 
-enum PoleState {
-    NORMAL,
-    FAILED,
-}
-
+/**
+ * This class is a view of one pole of a PendulumStore. The state itself
+ * lives in the store's columns; code stepping many poles should iterate
+ * the store directly instead.
+ */
 public class Pendulum {
-    public int pole_id;       // ID of the pole
-    public double init_pos;   // initial position
-    public double pos, posDot, angle, angleDot;
-    public double prevAngle, angleDDot, posDDot;
-    public double action = 0.75;
-    
-    public final double cartMass = 1.;
-    public final double poleMass = 0.1;
-    public final double poleLength = 1.;
-
-    ;
-    public final double forceMag = 30.;
-    public final double fricCart = 0.00005;
-    public final double fricPole = 0.005;
-    public final double totalMass = cartMass + poleMass;
-    public final double halfPole = 0.5 * poleLength;
-
-    ;
-    public final double poleMassLength = halfPole * poleMass;
-    public final double fourthirds = 4. / 3.;
-
-    public final double cartWidth = 0.4;  // for UI and collision detecion
-    double tau_sim;
-    int tau_phy_ms;
-    PoleState poleState = PoleState.NORMAL;
-
-    public Pendulum(int id, double init_pos) {
+    public final int pole_id;       // ID of the pole
+    final PendulumStore store;
+
+    public Pendulum(PendulumStore store, int id) {
+      this.store = store;
       this.pole_id = id;
-      this.init_pos = init_pos;
-      this.pos = init_pos;
     }
 
     int get_id() {
       return pole_id;
     }
 
+    PoleParams get_params() {
+        return store.params;
+    }
+
     void update_pos(double pos) {
-        synchronized (this) {
-            this.pos = pos;
-        }
+        store.pos[pole_id] = pos;
     }
 
     double get_pos() {
-        synchronized (this) {
-            return this.pos;
-        }
+        return store.pos[pole_id];
     }
 
     void update_posDot(double posDot) {
-        synchronized (this) {
-            this.posDot = posDot;
-        }
+        store.posDot[pole_id] = posDot;
     }
 
     double get_posDot() {
-        synchronized (this) {
-            return this.posDot;
-        }
+        return store.posDot[pole_id];
     }
 
     void update_posDDot(double posDDot) {
-        synchronized (this) {
-            this.posDDot = posDDot;
-        }
+        store.posDDot[pole_id] = posDDot;
     }
 
     double get_posDDot() {
-        synchronized (this) {
-            return this.posDDot;
-        }
+        return store.posDDot[pole_id];
     }
 
     void update_angle(double angle) {
-        synchronized (this) {
-            this.angle = angle;
-        }
+        store.angle[pole_id] = angle;
     }
 
     double get_angle() {
-        synchronized (this) {
-            return this.angle;
-        }
+        return store.angle[pole_id];
     }
 
     void update_angleDot(double angleDot) {
-        synchronized (this) {
-            this.angleDot = angleDot;
-        }
+        store.angleDot[pole_id] = angleDot;
     }
 
     double get_angleDot() {
-        synchronized (this) {
-            return this.angleDot;
-        }
+        return store.angleDot[pole_id];
     }
 
     void update_angleDDot(double angleDDot) {
-        synchronized (this) {
-            this.angleDDot = angleDDot;
-        }
+        store.angleDDot[pole_id] = angleDDot;
     }
 
     double get_angleDDot() {
-        synchronized (this) {
-            return this.angleDDot;
-        }
+        return store.angleDDot[pole_id];
     }
 
     void update_prevAngle(double prevAngle) {
-        synchronized (this) {
-            this.prevAngle = prevAngle;
-        }
+        store.prevAngle[pole_id] = prevAngle;
     }
 
     double get_prevAngle() {
-        synchronized (this) {
-            return this.prevAngle;
-        }
+        return store.prevAngle[pole_id];
     }
 
     void update_action(double action) {
-        synchronized (this) {
-            this.action = action;
-        }
+        store.action[pole_id] = action;
     }
 
     double get_action() {
-        synchronized (this) {
-            return this.action;
-        }
+        return store.action[pole_id];
     }
 
     PoleState get_poleState() {
-        synchronized (this) {
-          return this.poleState;
-        }
+        return store.get_poleState(pole_id);
     }
 
     void update_poleState(PoleState state) {
-        synchronized (this) {
-          this.poleState = state;
-        }
+        store.state[pole_id] = state == PoleState.NORMAL ? PendulumStore.NORMAL : PendulumStore.FAILED;
     }
 
     /**
      * This method resets the pole position values.
      */
     public void resetPole() {
-        this.update_pos(this.init_pos);
-        this.update_posDot(0.);
-        this.update_angle(0.);
-        this.update_angleDot(0.);
+        store.reset_pole(pole_id);
     }
 }
@@ -0,0 +1,53 @@
+/**
+ * This class stores the state of all the pendulums as contiguous primitive
+ * columns indexed by pole id, so that stepping, sensing and drawing many
+ * poles are tight loops over double[] without locks or pointer chasing.
+ * The physical constants are shared by all the poles of a store.
+ */
+class PendulumStore {
+    // Values of the state column
+    static final byte NORMAL = 0;
+    static final byte FAILED = 1;
+
+    final int size;
+    final PoleParams params;
+
+    final double[] init_pos;   // initial position
+    final double[] pos, posDot, angle, angleDot;
+    final double[] prevAngle, angleDDot, posDDot;
+    final double[] action;
+    final byte[] state;
+
+    PendulumStore(double[] init_pos, PoleParams params) {
+        this.size = init_pos.length;
+        this.params = params;
+        this.init_pos = init_pos.clone();
+        pos = new double[size];
+        posDot = new double[size];
+        angle = new double[size];
+        angleDot = new double[size];
+        prevAngle = new double[size];
+        angleDDot = new double[size];
+        posDDot = new double[size];
+        action = new double[size];
+        state = new byte[size];
+        for (int i = 0; i < size; i++) {
+            pos[i] = init_pos[i];
+            action[i] = 0.75;
+        }
+    }
+
+    PoleState get_poleState(int i) {
+        return state[i] == NORMAL ? PoleState.NORMAL : PoleState.FAILED;
+    }
+
+    /**
+     * This method resets the position values of pole i.
+     */
+    void reset_pole(int i) {
+        pos[i] = init_pos[i];
+        posDot[i] = 0.;
+        angle[i] = 0.;
+        angleDot[i] = 0.;
+    }
+}
@@ -3,31 +3,60 @@ import java.awt.*;
 import java.awt.event.*;
 import java.net.*;
 import java.io.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
 
 public class Physics implements Runnable {
-    public final double trackLimit = 4.8; // Track is available from -5.0 to 5.0
+    public double trackLimit = 4.8; // Track is available from -5.0 to 5.0
     long startTime;         // simulation start time (physical time)
     // long totalTime;         // total simulation time elapsed (physical time)
     double simulationTime;  // simulation time
+    long stepCount = 0;     // number of steps taken
     
     double tau_sim;
-    int tau_phy_ms;
+    long tau_phy_ns;        // physical time between two steps when paced
 
     public boolean pole_in_good_state = true;    // whether the poles are in good states
+    int failed_poles = 0;                        // number of poles in FAILED state
+    PendulumStore store;
+    SnapshotPublisher publisher;
+    CollisionDetector collisions;
+    ParallelStepper stepper;    // null when stepping on the calling thread
+    Integrator integrator = Integrator.EULER;
+    BatchKernel batchKernel;    // null to update the poles one by one
     Pendulum pendulums[];
+    // sequence number of the sensor frame whose answer set each action
+    long[] actionSeq;
+    // action frames older than the actions they would replace, read by the metrics thread
+    final LongAdder staleActions = new LongAdder();
     
-    // Set the number of poles
-    public final int NUM_POLES = 1;
     // Set the initial position of the poles
-    public final double[] pole_init_pos = {-2.0};
+    static final double[] DEFAULT_POLE_INIT_POS = {-2.0};
+    // The number of poles
+    public final int NUM_POLES;
+    public final double[] pole_init_pos;
 
     public Physics(double tau_sim, double tau_phy) {
+        this(tau_sim, tau_phy, DEFAULT_POLE_INIT_POS, new PoleParams());
+    }
+
+    public Physics(double tau_sim, double tau_phy, double[] pole_init_pos, PoleParams params) {
         this.tau_sim = tau_sim;
-        this.tau_phy_ms = (int) (1000 * tau_phy);
+        this.tau_phy_ns = Math.round(1e9 * tau_phy);
+        this.NUM_POLES = pole_init_pos.length;
+        this.pole_init_pos = pole_init_pos;
+        store = new PendulumStore(pole_init_pos, params);
         pendulums = new Pendulum[NUM_POLES];
-        assert(NUM_POLES == pole_init_pos.length);
+        actionSeq = new long[NUM_POLES];
         for (int i = 0; i < NUM_POLES; i++) {
-          pendulums[i] = new Pendulum(i, pole_init_pos[i]);
+          pendulums[i] = new Pendulum(store, i);
+        }
+        collisions = new CollisionDetector(store.pos);
+        publisher = new SnapshotPublisher(NUM_POLES);
+        publisher.publish(store, simulationTime, pole_in_good_state);
+        if (Recorder.ENABLED) {
+          // the initial state, for replays
+          Recorder.step(0, simulationTime, store);
         }
     }
 
@@ -43,16 +72,91 @@ public class Physics implements Runnable {
 
     // Update actions for all the poles
     void update_actions(double[] actions) {
-        assert(actions.length == NUM_POLES);
+        assert(actions.length >= NUM_POLES);
+        System.arraycopy(actions, 0, store.action, 0, NUM_POLES);
+    }
+
+    // Update the action of pole i, the other poles keep theirs
+    void update_action(int i, double action) {
+        store.action[i] = action;
+    }
+
+    /**
+     * This method applies the actions answering sensor frame seq to the
+     * poles whose actions come from an older frame. Answers may arrive out
+     * of order when several sensor frames are in flight, and a late one
+     * must not undo a newer one.
+     * Return false, and count the frame as stale, if no action was applied.
+     */
+    boolean update_actions(double[] actions, long seq) {
+        boolean applied = false;
         for (int i = 0; i < NUM_POLES; i++) {
-          pendulums[i].update_action(actions[i]);
+            if (seq > actionSeq[i]) {
+                store.action[i] = actions[i];
+                actionSeq[i] = seq;
+                applied = true;
+            }
+        }
+        if (!applied) {
+            staleActions.increment();
+        }
+        return applied;
+    }
+
+    /**
+     * This method is update_actions for the payload of an ACTION_DELTA
+     * frame, {pole id, action} for count poles.
+     * @throws IOException, applying none of the actions, if a pole id is
+     * not a whole number in [0, NUM_POLES)
+     */
+    boolean update_action_pairs(double[] pairs, int count, long seq) throws IOException {
+        for (int e = 0; e < count; e++) {
+            double id = pairs[e*2];
+            // also false for NaN
+            if (!(id >= 0 && id < NUM_POLES && id == (int) id)) {
+                throw new IOException("malformed frame: action for pole " + id);
+            }
+        }
+        boolean applied = false;
+        for (int e = 0; e < count; e++) {
+            int i = (int) pairs[e*2];
+            if (seq > actionSeq[i]) {
+                store.action[i] = pairs[e*2+1];
+                actionSeq[i] = seq;
+                applied = true;
+            }
+        }
+        if (!applied) {
+            staleActions.increment();
         }
+        return applied;
     }
 
     Pendulum[] get_pendulums() {
       return pendulums;
     }
 
+    PendulumStore get_store() {
+      return store;
+    }
+
+    // Consistent per-step snapshots of the store for other threads
+    SnapshotPublisher get_publisher() {
+      return publisher;
+    }
+
+    // Fill data with the {angle, angleDot, pos, posDot} of every pole
+    void get_sensor_data(double[] data) {
+        double[] angle = store.angle, angleDot = store.angleDot;
+        double[] pos = store.pos, posDot = store.posDot;
+        for (int i = 0; i < NUM_POLES; i++) {
+          data[i*4+0] = angle[i];
+          data[i*4+1] = angleDot[i];
+          data[i*4+2] = pos[i];
+          data[i*4+3] = posDot[i];
+        }
+    }
+
     /**
      * This method runs the applet by first connecting to the server socket
      * and runs the animation loop.
@@ -61,128 +165,191 @@ public class Physics implements Runnable {
      * them and the value of action.
      */
     public void run() {
-        
+        TickScheduler scheduler = new TickScheduler();
+        schedule(scheduler);
+        scheduler.run();
+    }
 
+    /**
+     * This method adds the simulation steps to a scheduler, one every
+     * tau_phy of physical time. Steps missed while the scheduler was busy
+     * are caught up, so the simulation keeps its speed.
+     */
+    TickTask schedule(TickScheduler scheduler) {
         //Remember the starting time.
         startTime = System.currentTimeMillis();
-        long nextTime = startTime;
         simulationTime = 0;
+        return scheduler.add("physics", tau_phy_ns, true, new Runnable() {
+            public void run() {
+                step();
+            }
+        });
+    }
+
+    // Select how the dynamics are integrated over each step of tau_sim
+    void set_integrator(Integrator integrator) {
+        this.integrator = integrator;
+    }
+
+    /**
+     * This method makes explicit Euler steps go through a batched kernel
+     * over the store columns, e.g. BatchDynamics.best() for the Vector API
+     * kernel when it is available.
+     */
+    void use_batch_kernel(BatchKernel kernel) {
+        this.batchKernel = kernel;
+    }
 
-        //This is the animation loop.
-        while (true) {
-          if (pole_in_good_state) {
-            for (int i = 0; i < pendulums.length; i++) {
-              pole_in_good_state = update_pendulum(pendulums[i]);
-              if (!pole_in_good_state) {
-                break;
-              }
+    /**
+     * This method makes step() integrate the poles in chunks on the given
+     * pool instead of on the calling thread.
+     */
+    void use_parallel_stepping(ForkJoinPool pool, int chunkSize) {
+        stepper = new ParallelStepper(this, pool, chunkSize);
+    }
+
+    /**
+     * This method advances the simulation by one step of tau_sim without
+     * any wall-clock pacing. run() calls it at the physical pace, headless
+     * simulations call it as fast as they like.
+     * Failed poles stay where they are while the others keep moving.
+     */
+    void step() {
+        int failed;
+        if (stepper != null) {
+          failed = stepper.integrate();
+        } else {
+          failed = integrate(0, NUM_POLES);
+        }
+
+        // Check if the pendulums collide with each other; the pairs are
+        // telemetry events (-Dtelemetry=physics:info)
+        if (collisions.detect(store.pos, store.params.cartWidth, store.state) > 0) {
+          if (Telemetry.PHYSICS >= Telemetry.INFO) {
+            for (int k = 0; k < collisions.get_pair_count(); k++) {
+              Telemetry.record(Telemetry.CAT_PHYSICS, Telemetry.EV_COLLISION, collisions.pair_first(k),
+                  collisions.pair_second(k), 0, 0, 0);
             }
           }
-          
-          // advance simulation time
-          simulationTime += tau_sim;
-
-          //Delay depending on how far we are behind.
-          try {
-              nextTime += tau_phy_ms;
-              Thread.sleep(Math.max(0,
-                      nextTime - System.currentTimeMillis()));
-          } catch (InterruptedException e) {
-            break;
+          failed = count_failed(0, NUM_POLES);
+        }
+        failed_poles = failed;
+        pole_in_good_state = failed == 0;
+
+        // advance simulation time
+        simulationTime += tau_sim;
+        stepCount++;
+        Metrics.PHYSICS_STEPS.increment();
+
+        if (Recorder.ENABLED) {
+          Recorder.step(stepCount, simulationTime, store);
+        }
+
+        publisher.publish(store, simulationTime, pole_in_good_state);
+    }
+
+    /**
+     * This method updates the poles [lo, hi) by one step.
+     * Return the number of those poles in FAILED state afterwards.
+     */
+    int integrate(int lo, int hi) {
+        if (batchKernel != null && integrator == Integrator.EULER) {
+          return batchKernel.step(store, tau_sim, trackLimit, lo, hi);
+        }
+        double[] y = new double[4];
+        double[] work = new double[Integrator.WORK_SIZE];
+        int failed = 0;
+        for (int i = lo; i < hi; i++) {
+          if (!update_pendulum(i, y, work)) {
+            failed++;
           }
         }
-        // this.sendMessage("bye");
+        return failed;
+    }
 
+    int count_failed(int lo, int hi) {
+        byte[] state = store.state;
+        int failed = 0;
+        for (int i = lo; i < hi; i++) {
+          if (state[i] != PendulumStore.NORMAL) {
+            failed++;
+          }
+        }
+        return failed;
+    }
+
+    // Number of poles in FAILED state after the last step
+    int get_failedPoles() {
+        return failed_poles;
     }
     
-    /** Update the state of one pendulum
-     *  Return whether the pendulum is in NORMAL state after the update
+    /** Update the state of pendulum i
+     *  Return whether the pendulum is in NORMAL state after the update.
+     *  Collisions between pendulums are checked once per step in step().
+     */
+    boolean update_pendulum(int i) {
+      return update_pendulum(i, new double[4], new double[Integrator.WORK_SIZE]);
+    }
+
+    /** Update the state of pendulum i using the caller's scratch arrays
+     *  (y holds 4 doubles, work Integrator.WORK_SIZE doubles)
      */
-    boolean update_pendulum(Pendulum p) {
-      if (p.get_poleState() != PoleState.NORMAL) {
+    boolean update_pendulum(int i, double[] y, double[] work) {
+      PendulumStore st = store;
+      PoleParams p = st.params;
+      if (st.state[i] != PendulumStore.NORMAL) {
         return false;
       }
 
       // Update the state of the pole;
-      // First calc derivatives of state variables
-      synchronized(p) {
-        System.out.println("Pendulum["+p.get_id()+"]: applied action = " + p.get_action());
-        double force = p.forceMag * p.get_action();
-        double sinangle = Math.sin(p.get_angle());
-        double cosangle = Math.cos(p.get_angle());
-        double angleDotSq = p.get_angleDot() * p.get_angleDot();
-        double common = (force + p.poleMassLength * angleDotSq * sinangle
-                - p.fricCart * (p.get_posDot() < 0 ? -1 : 1)) / p.totalMass; // Friction Bug Fixed
-        p.update_angleDDot((9.8 * sinangle - cosangle * common
-                - p.fricPole * p.get_angleDot() / p.poleMassLength)
-                / (p.halfPole * (p.fourthirds - p.poleMass * cosangle * cosangle
-                / p.totalMass)));
-        p.update_posDDot(common - p.poleMassLength * p.get_angleDDot() * cosangle
-                / p.totalMass);
-  
-        { // update status
-            double x = 0.;
-            x = p.get_pos();
-            x += p.get_posDot() * this.tau_sim;
-            p.update_pos(x);
-  
-            x = p.get_posDot();
-            x += p.get_posDDot() * this.tau_sim;
-            p.update_posDot(x);
-  
-            p.update_prevAngle(p.get_angle());
-  
-            x = p.get_angle();
-            x += p.get_angleDot() * this.tau_sim;
-            p.update_angle(x);
-  
-            x = p.get_angleDot();
-            x += p.get_angleDDot() * this.tau_sim;
-            p.update_angleDot(x);
-        }
-  
-         // If the pole has fallen down
-         if (p.get_angle() * 180 / Math.PI > 90.0 || p.get_angle() * 180 / Math.PI < -90.0) {
-             if (p.get_angle() > 0) {
-                 p.update_angle(Math.PI / 2);
-             } else {
-                 p.update_angle(-Math.PI / 2);
-             }
-             p.update_poleState(PoleState.FAILED);
-         }
-  
-         // If the pole has hit the right boundary
-         if (p.get_pos() + p.cartWidth / 2 > trackLimit) {
-             p.update_pos(trackLimit - p.cartWidth / 2);
-             p.update_poleState(PoleState.FAILED);
-         }
-  
-         // If the pole has hit the left boundary
-         if (p.get_pos() - p.cartWidth / 2 < -trackLimit) {
-             p.update_pos(-trackLimit + p.cartWidth / 2);
-             p.update_poleState(PoleState.FAILED);
-         }
-  
-         // Check if the pendulum collide with others
-         for (int i = 0; i<pendulums.length; i++) {
-           if (p == pendulums[i]) {
-             continue;
-           }
-           if (Math.abs(p.get_pos() - pendulums[i].get_pos()) 
-               < (p.cartWidth + pendulums[i].cartWidth)/2) {
-              // collision detected
-              p.update_poleState(PoleState.FAILED);
-              break;
-           }
-         }
-       }
-
-       try {
-           Thread.sleep(10);
-       } catch (Exception e) {
-           e.printStackTrace();
-       }
-       return p.get_poleState() == PoleState.NORMAL;
+      if (Telemetry.PHYSICS >= Telemetry.DEBUG) {
+        Telemetry.record(Telemetry.CAT_PHYSICS, Telemetry.EV_APPLIED_ACTION, i, st.action[i], 0, 0, 0);
+      }
+      y[CartPoleDynamics.POS] = st.pos[i];
+      y[CartPoleDynamics.POS_DOT] = st.posDot[i];
+      y[CartPoleDynamics.ANGLE] = st.angle[i];
+      y[CartPoleDynamics.ANGLE_DOT] = st.angleDot[i];
+      st.prevAngle[i] = st.angle[i];
+
+      integrator.step(p, y, st.action[i], this.tau_sim, work);
+      st.posDDot[i] = work[CartPoleDynamics.POS_DOT];
+      st.angleDDot[i] = work[CartPoleDynamics.ANGLE_DOT];
+
+      double pos = y[CartPoleDynamics.POS];
+      double posDot = y[CartPoleDynamics.POS_DOT];
+      double angle = y[CartPoleDynamics.ANGLE];
+      double angleDot = y[CartPoleDynamics.ANGLE_DOT];
+
+      byte state = PendulumStore.NORMAL;
+
+      // If the pole has fallen down
+      if (angle * 180 / Math.PI > 90.0 || angle * 180 / Math.PI < -90.0) {
+          if (angle > 0) {
+              angle = Math.PI / 2;
+          } else {
+              angle = -Math.PI / 2;
+          }
+          state = PendulumStore.FAILED;
+      }
+
+      // If the pole has hit the right boundary
+      if (pos + p.cartWidth / 2 > trackLimit) {
+          pos = trackLimit - p.cartWidth / 2;
+          state = PendulumStore.FAILED;
+      }
+
+      // If the pole has hit the left boundary
+      if (pos - p.cartWidth / 2 < -trackLimit) {
+          pos = -trackLimit + p.cartWidth / 2;
+          state = PendulumStore.FAILED;
+      }
+
+      st.pos[i] = pos;
+      st.posDot[i] = posDot;
+      st.angle[i] = angle;
+      st.angleDot[i] = angleDot;
+      st.state[i] = state;
+      return state == PendulumStore.NORMAL;
     }
 
 }
@@ -0,0 +1,33 @@
+/**
+ * This class holds the physical constants of a cart-pole.
+ */
+class PoleParams {
+    final double cartMass;
+    final double poleMass;
+    final double poleLength;
+    final double forceMag;
+    final double fricCart;
+    final double fricPole;
+    final double totalMass;
+    final double halfPole;
+    final double poleMassLength;
+    final double fourthirds = 4. / 3.;
+    final double cartWidth = 0.4;  // for UI and collision detecion
+
+    PoleParams() {
+        this(1., 0.1, 1., 30., 0.00005, 0.005);
+    }
+
+    PoleParams(double cartMass, double poleMass, double poleLength,
+               double forceMag, double fricCart, double fricPole) {
+        this.cartMass = cartMass;
+        this.poleMass = poleMass;
+        this.poleLength = poleLength;
+        this.forceMag = forceMag;
+        this.fricCart = fricCart;
+        this.fricPole = fricPole;
+        this.totalMass = cartMass + poleMass;
+        this.halfPole = 0.5 * poleLength;
+        this.poleMassLength = halfPole * poleMass;
+    }
+}
@@ -0,0 +1,534 @@
+/**
+ * This class sends control messages to balance the pendulum on client side.
+ */
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+class PoleServer_handler implements Runnable {
+    // Set the number of poles
+    private static final int NUM_POLES = 1;
+
+    static ServerSocket providerSocket;
+    Socket connection = null;
+    // the client connection, a socket or an in-process loopback
+    Transport transport;
+    String message = "abc";
+    Socket clientSocket;
+    Thread t;
+    int start_pos = -2;
+    // controller of this session, the client may choose another one
+    int controllerId = Controllers.DEFAULT;
+    Controller controller = Controllers.create(controllerId);
+    // last known sensor data of the poles
+    SensorState state = new SensorState();
+    // session number of the records of this handler
+    int session = Recorder.ENABLED ? Recorder.new_session() : 0;
+    // computes the sensor frames on the worker threads, null to compute
+    // them on the session thread
+    SessionPipeline pipeline = SessionPipeline.DEPTH > 0 ? new SessionPipeline(this, SessionPipeline.DEPTH) : null;
+
+    /**
+     * Class Constructor
+     */
+    public PoleServer_handler(Socket socket) {
+        this(socket, false);
+    }
+
+    /**
+     * Class Constructor, running the session on a virtual thread if asked to
+     */
+    public PoleServer_handler(Socket socket, boolean virtual) {
+        t = SessionThreads.new_thread(this, virtual);
+        clientSocket = socket;
+
+        try {
+            transport = new StreamTransport(clientSocket);
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+        t.start();
+    }
+
+    /**
+     * Class Constructor for a session over any transport, e.g. one end of a
+     * LoopbackTransport when the client runs in the same JVM
+     */
+    public PoleServer_handler(Transport transport) {
+        this.transport = transport;
+        t = SessionThreads.new_thread(this, false);
+        t.start();
+    }
+    double angle, angleDot, pos, posDot, action = 0, i = 0;
+
+    /**
+     * This method receives the pole positions and calculates the updated value
+     * and sends them across to the client.
+     * It also sends the amount of force to be applied to balance the pendulum.
+     * @throws ioException
+     */
+    void control_pendulum(Transport transport) {
+        Frame frame = new Frame(NUM_POLES * 4);
+        double[] actions = new double[NUM_POLES];
+        Metrics.ACTIVE_SESSIONS.increment();
+        try {
+            while(true){
+                // read data from client
+                transport.receive(frame);
+                Metrics.FRAMES_IN.increment();
+                frame.stamps[Frame.SERVER_RECEIVED] = System.nanoTime();
+
+                // Do not process anything but sensor data unless it is "bye",
+                // in which case, we close the server, or the choice of a
+                // controller
+                if(frame.type == Frame.CONTROLLER){
+                    select_controller((int) frame.seq);
+                    continue;
+                }
+                if(frame.type != Frame.SENSOR && frame.type != Frame.SENSOR_DELTA){
+                    System.out.println("FRAME RECEIVED: type "+frame.type);
+                    if(frame.type == Frame.BYE){
+                        break;
+                    }
+                    continue;
+                }
+
+                // A delta frame only carries the poles that changed, the
+                // others keep their last known data
+                state.apply(frame);
+                assert(state.poles == NUM_POLES);
+                if (Recorder.ENABLED) {
+                    Recorder.frame(Recorder.SERVER, session, frame.type, frame.values, frame.poles, frame.seq);
+                }
+                if (actions.length < state.poles) {
+                    actions = new double[state.poles];
+                }
+
+                if (Telemetry.SERVER >= Telemetry.DEBUG) {
+                  for (int e = 0; e < state.count; e++) {
+                    Telemetry.record(Telemetry.CAT_SERVER, Telemetry.EV_SERVER_SENSOR, state.changed[e],
+                        state.packed[e*4+0], state.packed[e*4+1], state.packed[e*4+2], state.packed[e*4+3]);
+                  }
+                }
+
+                // Go on reading while a worker computes and answers this frame
+                if (pipeline != null) {
+                    pipeline.submit(frame, state, controllerId);
+                    continue;
+                }
+
+                // Calculate the action to be applied to each inverted pendulum,
+                // only to the poles that changed if they are controlled independently
+                long started = System.nanoTime();
+                if (state.sparse && Controllers.per_pole(controllerId)) {
+                    controller.compute(state.packed, state.count, actions);
+                    frame.stamps[Frame.COMPUTED] = System.nanoTime();
+                    Metrics.controller_call(frame.stamps[Frame.COMPUTED] - started);
+                    sendMessage_actions(Frame.ACTION_DELTA, state.pair_actions(actions), state.count, frame);
+                } else {
+                    controller.compute(state.data, state.poles, actions);
+                    frame.stamps[Frame.COMPUTED] = System.nanoTime();
+                    Metrics.controller_call(frame.stamps[Frame.COMPUTED] - started);
+                    sendMessage_actions(Frame.ACTION, actions, state.poles, frame);
+                }
+
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+
+        try {
+            if (pipeline != null) {
+                // the answers in flight go out before the "bye"
+                pipeline.drain();
+            }
+            if (transport != null) {
+                System.out.println("closing down connection ...");                
+                transport.send(Frame.BYE, null, 0, 0, Frame.NO_STAMPS);
+                Metrics.FRAMES_OUT.increment();
+                transport.close();
+            }
+        } catch (IOException ioe) {
+            System.out.println("unable to disconnect");
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        Metrics.ACTIVE_SESSIONS.decrement();
+
+        System.out.print(LatencyStats.summary(LatencyStats.SERVER_SIDE));
+        System.out.println("Session closed. Waiting for new connection...");
+
+    }
+
+    /**
+     * This method switches the session to the controller with the given id
+     * of Controllers, keeping the current one if the id is unknown.
+     */
+    void select_controller(int id) {
+        Controller chosen = Controllers.create(id);
+        if (chosen == null) {
+            System.out.println("unknown controller id " + id);
+            return;
+        }
+        controllerId = id;
+        controller = chosen;
+        System.out.println("session controller: " + Controllers.NAMES[id]);
+    }
+
+    /**
+     * This method calls the controller method to balance the pendulum.
+     * @throws ioException
+     */
+    public void run() {
+
+        try {
+            control_pendulum(transport);
+
+        } catch (Exception ioException) {
+            ioException.printStackTrace();
+        } finally {
+        }
+
+    }
+
+    // Calculate the actions to be applied to the inverted pendulum from the
+    // sensing data. This is the "ladder" controller; GainScheduleController
+    // computes the same actions from a table.
+    static double calculate_action(double angle, double angleDot, double pos, double posDot) {
+        double action = ladder_action(angle, angleDot, pos, posDot);
+        if (Telemetry.CONTROLLER >= Telemetry.DEBUG) {
+            Telemetry.record(Telemetry.CAT_CONTROLLER, Telemetry.EV_CONTROL, 0,
+                angle, angleDot, pos, action);
+        }
+        return action;
+    }
+
+    // The if/else ladder of calculate_action, without the telemetry
+    static double ladder_action(double angle, double angleDot, double pos, double posDot) {
+        double action = 0;
+        boolean first_iteration = true;
+        boolean hit_pos = false;
+         //if (angle > 0 && angleDiff < 0) {
+         if (angle > 0) {
+             if (angle > 65 * 0.01745) {
+                 action = 9;
+             } else if (angle > 60 * 0.01745) {
+                 action = 7;
+             } else if (angle > 50 * 0.01745) {
+                 action = 5;
+             } else if (angle > 30 * 0.01745) {
+                 action = 3;
+             } else if (angle > 20 * 0.01745) {
+                 action = 2;
+             } else if (angle > 10 * 0.01745) {
+                 action = 3;
+             } else if(angle >5*0.01745){
+                 action = .5;
+             } else if(angle >2*0.01745){
+                 action = 0.25;
+             } else {
+                 action = 0.05;
+             }
+         } else if (angle < 0) {
+             if (angle < -65 * 0.01745) {
+                 action = -7;
+             } else if (angle < -60 * 0.01745) {
+                 action = -6;
+             } else if (angle < -50 * 0.01745) {
+                 action = -5;
+             } else if (angle < -30 * 0.01745) {
+                 action = -4;
+             } else if (angle < -20 * 0.01745) {
+                 action = -4;
+             } else if (angle < -10 * 0.01745) {
+                 action = -4;
+             } else if(angle <-5*0.01745){
+                 action = -0;
+             } else if(angle <-2*0.01745){
+                 action = -1;
+             } else {
+                 action = -0;
+             } 
+          } else {
+              action = 0;
+          }
+          if (angleDot > 0) {
+              if (angleDot > 65 * 0.01745) {
+                  action += 9;
+              } else if (angleDot > 60 * 0.01745) {
+                  action += 5;
+              } else if (angleDot > 50 * 0.01745) {
+                  action += 4;
+              } else if (angleDot > 30 * 0.01745) {
+                  action += 3;
+              } else if (angleDot > 20 * 0.01745) {
+                  action += 2;
+              } else if (angleDot > 10 * 0.01745) {
+                  action += 1;
+              } else if(angleDot > 5*0.01745){
+                  action += 0.2;
+              } else if(angleDot > 2*0.01745){
+                  action += 0.1;
+              } else {
+                  action += 0.01;
+              } 
+          } else if (angleDot < 0) {
+              if (angleDot < -65 * 0.01745) {
+                  action += -9;
+              } else if (angleDot < -60 * 0.01745) {
+                  action += -3;
+              } else if (angleDot < -50 * 0.01745) {
+                  action += -3;
+              } else if (angleDot < -30 * 0.01745) {
+                  action += -3;
+              } else if (angleDot < -20 * 0.01745) {
+                  action += -2;
+              } else if (angleDot < -10 * 0.01745) {
+                  action += -1.5;
+              } else if(angleDot <-5*0.01745){
+                  action += -1;
+              } else if(angleDot <-2*0.01745){
+                  action += -0.25;
+              } else {
+                  action += -0.1;
+              } 
+          } else {
+             action = 0;
+         }
+         //Michael: Probably should do preventative measures with the velocity
+         if (posDot < 0) {
+             if (posDot < -0.5) {
+                 action += 0.2;
+             }
+         } else if (posDot > 0) {
+             if (posDot > 0.5) {
+                 action += -0.2;
+             }
+        }
+        int target_pos = 2;
+        if ( first_iteration ) {
+            action -= target_pos;
+            first_iteration = false;
+        }
+        if ( pos < target_pos ) 
+            if (angleDot > -2 * 0.01745 )
+                action += 3;
+        if ( pos >= target_pos && hit_pos == false){
+            hit_pos = true;
+            action += 4*target_pos;
+        }
+        if ( posDot > 0 && angle < 0 && hit_pos){
+            action = -6;            
+        }
+
+        /*if ( hit_pos ) {
+            if ( angle < 0 )
+                hit_pos = false;
+            action += 5;
+        }*/
+        //else if ( pos > targetPos )
+            //action -= 1;
+        /*if (pos < 0 && angle < 10 * 0.01745)
+            action -= 6;
+        else if (pos == 2) {
+            action = 0;
+        }
+        else if (pos >= 1 && pos < 2) {
+            action += 3.5;
+        } else if (pos > 2) {
+            //action -= 5;
+            action = 0;
+        }  */ 
+        return action;
+     
+   }
+
+    /**
+     * This method sends a single action as a frame to the client.
+     * @throws ioException
+     */
+    void sendMessage_double(double msg) {
+        try {
+            transport.send(Frame.ACTION, new double[] {msg}, 1, 0, Frame.NO_STAMPS);
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+        }
+    }
+
+    /**
+     * This method sends the actions as a frame to the client.
+     */
+    void sendMessage_doubleArray(double[] data) {
+        try {
+            transport.send(Frame.ACTION, data, data.length, 0, Frame.NO_STAMPS);
+
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+        }
+    }
+
+    /**
+     * This method sends the actions computed for a sensor frame, tagged with
+     * the sequence number and the latency stamps of that frame.
+     */
+    void sendMessage_doubleArray(double[] data, Frame request) {
+        sendMessage_actions(Frame.ACTION, data, data.length, request);
+    }
+
+    /**
+     * This method sends an ACTION or ACTION_DELTA frame answering a sensor
+     * frame, tagged with the sequence number and the latency stamps of that
+     * frame.
+     */
+    void sendMessage_actions(byte type, double[] data, int poles, Frame request) {
+        try {
+            request.stamps[Frame.SERVER_SENT] = System.nanoTime();
+            transport.send(type, data, poles, request.seq, request.stamps);
+            Metrics.FRAMES_OUT.increment();
+            LatencyStats.record_server(request.stamps, System.nanoTime());
+            if (Recorder.ENABLED) {
+                Recorder.frame(Recorder.SERVER, session, type, data, poles, request.seq);
+            }
+
+            if (Telemetry.SERVER >= Telemetry.INFO) {
+                Telemetry.record(Telemetry.CAT_SERVER, Telemetry.EV_SERVER_ACTIONS, (int) request.seq,
+                    poles, poles > 0 ? data[0] : 0, 0, 0);
+            }
+
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+        }
+    }
+
+
+}
+
+/**
+ * This class lets a PoleServer_handler session have several sensor frames
+ * in flight (-Dserver.pipeline=<frames>). The session thread applies each
+ * frame to the SensorState in order, copies what the controller needs into
+ * a free slot and goes on reading; the slots are computed and answered by
+ * shared worker threads, so the actions of a frame may be sent before
+ * those of an earlier one. Every action frame carries the sequence number
+ * of the sensor frame it answers and the client applies only actions newer
+ * than its own (Physics.update_actions). A session whose slots are all
+ * busy waits for one, which bounds the frames in flight.
+ */
+class SessionPipeline {
+    // sensor frames in flight per session, 0 to compute them in line
+    static final int DEPTH = Integer.getInteger("server.pipeline", 0);
+    static final int WORKERS = Integer.getInteger("server.pipeline.workers",
+            Runtime.getRuntime().availableProcessors());
+    private static ExecutorService workers;
+
+    private final PoleServer_handler handler;
+    private final ArrayBlockingQueue<Slot> free;
+    private final int depth;
+
+    SessionPipeline(PoleServer_handler handler, int depth) {
+        this.handler = handler;
+        this.depth = depth;
+        free = new ArrayBlockingQueue<Slot>(depth);
+        for (int i = 0; i < depth; i++) {
+            free.add(new Slot());
+        }
+    }
+
+    // WORKERS threads shared by all the sessions
+    private static synchronized ExecutorService workers() {
+        if (workers == null) {
+            workers = Executors.newFixedThreadPool(WORKERS,
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "pipeline-worker");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+        }
+        return workers;
+    }
+
+    /**
+     * This method hands a sensor frame, already applied to state, to a
+     * worker, waiting for a free slot if depth frames are in flight.
+     */
+    void submit(Frame frame, SensorState state, int controllerId) throws InterruptedException {
+        Slot slot = free.take();
+        slot.fill(frame, state, controllerId);
+        workers().execute(slot);
+    }
+
+    /**
+     * This method waits until the frames in flight have been answered.
+     */
+    void drain() throws InterruptedException {
+        ArrayList<Slot> all = new ArrayList<Slot>(depth);
+        for (int i = 0; i < depth; i++) {
+            all.add(free.take());
+        }
+        free.addAll(all);
+    }
+
+    /**
+     * This class is one frame in flight: the data the controller needs, a
+     * controller of its own and the request whose sequence number and
+     * stamps the answer carries.
+     */
+    private class Slot implements Runnable {
+        private final Frame request = new Frame(0);
+        private int controllerId = -1;
+        private Controller controller;
+        private boolean delta;
+        private int poles;
+        private double[] data = new double[0];
+        private int[] ids = new int[0];
+        private double[] actions = new double[0];
+        private double[] pairs = new double[0];
+
+        void fill(Frame frame, SensorState state, int id) {
+            if (id != controllerId) {
+                controller = Controllers.create(id);
+                controllerId = id;
+            }
+            request.seq = frame.seq;
+            System.arraycopy(frame.stamps, 0, request.stamps, 0, Frame.STAMPS);
+            // only the poles of a delta if they are controlled independently
+            delta = state.sparse && Controllers.per_pole(id);
+            poles = delta ? state.count : state.poles;
+            if (data.length < 4 * poles) {
+                data = new double[4 * poles];
+                actions = new double[poles];
+            }
+            System.arraycopy(delta ? state.packed : state.data, 0, data, 0, 4 * poles);
+            if (delta) {
+                if (ids.length < poles) {
+                    ids = new int[poles];
+                    pairs = new double[2 * poles];
+                }
+                System.arraycopy(state.changed, 0, ids, 0, poles);
+            }
+        }
+
+        public void run() {
+            try {
+                long started = System.nanoTime();
+                controller.compute(data, poles, actions);
+                request.stamps[Frame.COMPUTED] = System.nanoTime();
+                Metrics.controller_call(request.stamps[Frame.COMPUTED] - started);
+                if (delta) {
+                    for (int e = 0; e < poles; e++) {
+                        pairs[e*2] = ids[e];
+                        pairs[e*2+1] = actions[e];
+                    }
+                    handler.sendMessage_actions(Frame.ACTION_DELTA, pairs, poles, request);
+                } else {
+                    handler.sendMessage_actions(Frame.ACTION, actions, poles, request);
+                }
+            } finally {
+                free.add(this);
+            }
+        }
+    }
+}
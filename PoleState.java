@@ -0,0 +1,8 @@
+/**
+ * This enum is the state of a pole: up and on the track, or failed after
+ * falling over or hitting the end of the track.
+ */
+enum PoleState {
+    NORMAL,
+    FAILED,
+}
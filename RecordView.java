@@ -0,0 +1,93 @@
+/**
+ * This class is a view of one record of a mapped segment.
+ */
+import java.nio.ByteBuffer;
+
+class RecordView {
+    ByteBuffer buf;
+    int at = -1;
+
+    // Move to the next record of the segment, return false at its end
+    boolean advance() {
+        int nextAt = at < 0 ? Recorder.SEGMENT_HEADER_BYTES : at + buf.getInt(at);
+        if (nextAt + Recorder.HEADER_BYTES > buf.capacity()) {
+            return false;
+        }
+        int length = buf.getInt(nextAt);
+        if (length < Recorder.HEADER_BYTES || nextAt + length > buf.capacity()) {
+            return false;
+        }
+        at = nextAt;
+        return true;
+    }
+
+    short get_kind() {
+        return buf.getShort(at + 4);
+    }
+
+    short get_source() {
+        return buf.getShort(at + 6);
+    }
+
+    // 0 on the client, the session of a server
+    int get_session() {
+        return buf.getInt(at + 8);
+    }
+
+    int get_poles() {
+        return buf.getInt(at + 12);
+    }
+
+    long get_time() {
+        return buf.getLong(at + 16);
+    }
+
+    // frame sequence number, or step number of a STEP record
+    long get_seq() {
+        return buf.getLong(at + 24);
+    }
+
+    int get_count() {
+        return buf.getInt(at + 32);
+    }
+
+    double get_value(int i) {
+        return buf.getDouble(at + Recorder.HEADER_BYTES + 8 * i);
+    }
+
+    /**
+     * This method returns a STEP value: column k (Recorder.STEP_COLUMNS of
+     * them, angle first) of pole i.
+     */
+    double get_step_value(int k, int i) {
+        return get_value(1 + k * get_poles() + i);
+    }
+
+    public String toString() {
+        short kind = get_kind();
+        short source = get_source();
+        StringBuilder sb = new StringBuilder();
+        sb.append(source >= 0 && source < Recorder.SOURCE_NAMES.length ? Recorder.SOURCE_NAMES[source] : "#" + source);
+        if (source == Recorder.SERVER) {
+            sb.append(" ").append(get_session());
+        }
+        if (kind == Recorder.STEP) {
+            sb.append(String.format("  step %d  sim %.3f s", get_seq(), get_value(0)));
+            for (int i = 0; i < Math.min(get_poles(), 4); i++) {
+                sb.append(String.format("  [%d] angle %.4f pos %.4f action %.3f%s", i,
+                        get_step_value(0, i), get_step_value(2, i), get_step_value(4, i),
+                        get_step_value(5, i) != 0 ? " FAILED" : ""));
+            }
+        } else {
+            sb.append("  frame type ").append(kind).append("  seq ").append(get_seq())
+              .append("  poles ").append(get_poles());
+            for (int i = 0; i < Math.min(get_count(), 8); i++) {
+                sb.append("  ").append(get_value(i));
+            }
+        }
+        if (get_poles() > 4) {
+            sb.append("  ...");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,425 @@
+/**
+ * This class records complete sessions for post-mortems: every sensor
+ * frame, action frame and physics step is appended as a binary record to
+ * memory-mapped segment files. A record reserves its bytes with a
+ * compare-and-set on the offset of the segment and is copied into the
+ * mapped memory, so appending takes no lock and no system call; the kernel
+ * writes the pages back, even if the process dies. A background thread
+ * creates, maps and pre-touches the next segment before the current one is
+ * full, and writes an index entry for every segment that is sealed. A
+ * record that finds the current segment full before the next one is ready
+ * is dropped and counted, the threads that record never wait. Records of
+ * different threads are in the order they reserved their bytes, which may
+ * differ from the order of their times by the time it takes to copy one.
+ *
+ * Recording is enabled with -Drecorder.dir=<directory>; the segment size
+ * is set with -Drecorder.segment.mb (64 by default). Every process records
+ * into a new subdirectory run-<yyyyMMdd-HHmmss>-<pid> of it, so a restart
+ * keeps the earlier recordings and a client and a server can share the
+ * directory. A disabled call site
+ *     if (Recorder.ENABLED) { Recorder.frame(...); }
+ * is removed by the JIT. Recordings are read back with RecordingReader.
+ *
+ * Segment file segment-NNNNN.rec (big endian):
+ *   int magic, int segment number, long wall time (ms), long nanoTime, long 0
+ *   records, until a record length of 0
+ * Record (HEADER_BYTES + 8 * count bytes):
+ *   int length, short kind, short source, int session, int poles,
+ *   long time (nanoTime), long seq, int count, int 0, double values[count]
+ * Index file index.rec: int magic, then one entry per sealed segment
+ *   int segment number, int records, long first record number,
+ *   long first time, long last time, int bytes used
+ */
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+class Recorder {
+    // Kinds of records: the Frame types for frames, and STEP
+    static final short STEP = 16;
+    // STEP values: simulation time, then the columns angle, angleDot, pos,
+    // posDot, action and state (0 normal, 1 failed) of the poles
+    static final int STEP_COLUMNS = 6;
+
+    // Sources of records
+    static final short CLIENT = 0;
+    static final short SERVER = 1;
+    static final String[] SOURCE_NAMES = {"client", "server"};
+
+    static final int SEGMENT_MAGIC = 0x52454331;   // "REC1"
+    static final int INDEX_MAGIC = 0x52494431;     // "RID1"
+    static final int SEGMENT_HEADER_BYTES = 32;
+    static final int HEADER_BYTES = 40;
+    static final int INDEX_ENTRY_BYTES = 36;
+    private static final int PAGE = 4096;
+
+    static final String DIR = System.getProperty("recorder.dir");
+    static final boolean ENABLED = DIR != null;
+    // the directory of this process's recording
+    static final Path RUN_DIR = ENABLED ? Paths.get(DIR, run_name()) : null;
+    private static final long SEGMENT_BYTES =
+            Long.getLong("recorder.segment.mb", 64) * 1024 * 1024;
+
+    // the segment records are appended to, null once closed
+    private static final AtomicReference<Segment> current = new AtomicReference<Segment>();
+    // prepared by the roller thread, taken by the record that fills current
+    private static final AtomicReference<Segment> next = new AtomicReference<Segment>();
+    private static int nextNumber = 0;   // roller thread
+    private static long records = 0;     // records of the segments indexed so far
+    private static final LongAdder dropped = new LongAdder();
+    private static volatile boolean failed = false;
+    private static volatile boolean closed = false;
+    private static final ConcurrentLinkedQueue<Segment> sealed = new ConcurrentLinkedQueue<Segment>();
+    private static Thread roller;
+    // session 0 is the client, server sessions are numbered from 1
+    private static final AtomicInteger sessions = new AtomicInteger();
+
+    static {
+        if (ENABLED) {
+            start();
+        }
+    }
+
+    // Number for the records of a new server session
+    static int new_session() {
+        return sessions.incrementAndGet();
+    }
+
+    /**
+     * This method records a frame sent or received, with the values of its
+     * poles as they are on the wire.
+     */
+    static void frame(short source, int session, byte type, double[] values, int poles, long seq) {
+        int count = poles * Frame.values_per_pole(type);
+        int n = HEADER_BYTES + 8 * count;
+        Segment segment = current.get();
+        int at = claim(segment, n);
+        while (at == Segment.FULL && (segment = roll(segment)) != null) {
+            at = claim(segment, n);
+        }
+        if (at < 0) {
+            dropped.increment();
+            return;
+        }
+        ByteBuffer buf = segment.buf;
+        put_header(buf, at, type, source, session, seq, poles, count);
+        int v = at + HEADER_BYTES;
+        for (int i = 0; i < count; i++) {
+            buf.putDouble(v + 8 * i, values[i]);
+        }
+        buf.putInt(at, n);
+        segment.commit(n);
+    }
+
+    /**
+     * This method records the state of all the poles after a physics step.
+     */
+    static void step(long step, double simTime, PendulumStore store) {
+        int poles = store.size;
+        int count = 1 + STEP_COLUMNS * poles;
+        int n = HEADER_BYTES + 8 * count;
+        Segment segment = current.get();
+        int at = claim(segment, n);
+        while (at == Segment.FULL && (segment = roll(segment)) != null) {
+            at = claim(segment, n);
+        }
+        if (at < 0) {
+            dropped.increment();
+            return;
+        }
+        ByteBuffer buf = segment.buf;
+        put_header(buf, at, STEP, CLIENT, 0, step, poles, count);
+        int v = at + HEADER_BYTES;
+        buf.putDouble(v, simTime);
+        v += 8;
+        v = put_column(buf, v, store.angle, poles);
+        v = put_column(buf, v, store.angleDot, poles);
+        v = put_column(buf, v, store.pos, poles);
+        v = put_column(buf, v, store.posDot, poles);
+        v = put_column(buf, v, store.action, poles);
+        for (int i = 0; i < poles; i++) {
+            buf.putDouble(v + 8 * i, store.state[i]);
+        }
+        buf.putInt(at, n);
+        segment.commit(n);
+    }
+
+    // Number of records dropped because they did not fit into a segment
+    static long get_dropped() {
+        return dropped.sum();
+    }
+
+    private static int put_column(ByteBuffer buf, int at, double[] column, int poles) {
+        for (int i = 0; i < poles; i++) {
+            buf.putDouble(at + 8 * i, column[i]);
+        }
+        return at + 8 * poles;
+    }
+
+    // The length is written last, a reader stops at a length of 0
+    private static void put_header(ByteBuffer buf, int at, short kind, short source, int session,
+                                   long seq, int poles, int count) {
+        buf.putShort(at + 4, kind);
+        buf.putShort(at + 6, source);
+        buf.putInt(at + 8, session);
+        buf.putInt(at + 12, poles);
+        buf.putLong(at + 16, System.nanoTime());
+        buf.putLong(at + 24, seq);
+        buf.putInt(at + 32, count);
+    }
+
+    /**
+     * This method reserves n bytes in a segment.
+     * Return their offset, Segment.FULL if they do not fit, or -1 if the
+     * record is dropped.
+     */
+    private static int claim(Segment segment, int n) {
+        if (segment == null || n > SEGMENT_BYTES - SEGMENT_HEADER_BYTES) {
+            return -1;
+        }
+        return segment.reserve(n);
+    }
+
+    /**
+     * This method makes the next segment current when a record does not fit
+     * into full, unless another thread already did.
+     * Return the segment to retry in, or null if the record is dropped
+     * because the next segment is not ready or the recorder is closed.
+     */
+    private static Segment roll(Segment full) {
+        if (current.get() == full) {
+            Segment ready = next.get();
+            if (ready == null || ready == full || closed) {
+                return null;
+            }
+            if (current.compareAndSet(full, ready)) {
+                next.compareAndSet(ready, null);
+                full.seal();
+                sealed.add(full);
+                LockSupport.unpark(roller);
+            }
+        }
+        return current.get();
+    }
+
+    private static void start() {
+        final FileChannel index;
+        try {
+            Files.createDirectories(Paths.get(DIR));
+            // fails rather than mixing in the segments of another recording
+            Files.createDirectory(RUN_DIR);
+            index = FileChannel.open(RUN_DIR.resolve("index.rec"), StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE);
+            ByteBuffer header = ByteBuffer.allocate(4);
+            header.putInt(INDEX_MAGIC).flip();
+            index.write(header);
+            current.set(Segment.create(nextNumber++));
+        } catch (IOException ioe) {
+            System.out.println("recorder disabled: " + ioe);
+            failed = true;
+            return;
+        }
+
+        roller = new Thread(new Runnable() {
+            public void run() {
+                while (true) {
+                    prepare_next();
+                    write_index(index);
+                    LockSupport.park();
+                }
+            }
+        }, "recorder-roller");
+        roller.setDaemon(true);
+        roller.start();
+        System.out.println("recording to " + RUN_DIR);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                closed = true;
+                Segment last = current.getAndSet(null);
+                if (last != null) {
+                    last.seal();
+                    sealed.add(last);
+                }
+                delete_next();
+                write_index(index);
+                try {
+                    index.close();
+                } catch (IOException ioe) {
+                }
+                if (dropped.sum() > 0) {
+                    System.out.println("recorder: " + dropped.sum() + " records dropped");
+                }
+            }
+        }));
+    }
+
+    // Create the next segment on the roller thread and hand it to the writers
+    private static void prepare_next() {
+        if (next.get() != null || closed || failed) {
+            return;
+        }
+        try {
+            next.set(Segment.create(nextNumber++));
+        } catch (IOException ioe) {
+            System.out.println("recorder stopped: " + ioe);
+            failed = true;
+        }
+        if (closed) {
+            delete_next();
+        }
+    }
+
+    // Delete the segment prepared but never written
+    private static void delete_next() {
+        Segment prepared = next.getAndSet(null);
+        if (prepared != null) {
+            try {
+                Files.deleteIfExists(prepared.path);
+            } catch (IOException ioe) {
+            }
+        }
+    }
+
+    // Append the index entries of the sealed segments, once written
+    private static void write_index(FileChannel index) {
+        synchronized (index) {
+            Segment s;
+            while ((s = sealed.poll()) != null) {
+                s.await_commits();
+                s.scan();
+                s.firstRecord = records;
+                records += s.records;
+                ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+                entry.putInt(s.number).putInt((int) s.records).putLong(s.firstRecord)
+                     .putLong(s.firstTime).putLong(s.lastTime).putInt(s.end);
+                entry.flip();
+                try {
+                    while (entry.hasRemaining()) {
+                        index.write(entry);
+                    }
+                } catch (IOException ioe) {
+                    ioe.printStackTrace();
+                }
+            }
+        }
+    }
+
+    // Name of the directory of a recording started now by this process
+    static String run_name() {
+        return "run-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date())
+                + "-" + ProcessHandle.current().pid();
+    }
+
+    static String segment_name(int number) {
+        return String.format("segment-%05d.rec", number);
+    }
+
+    /**
+     * This class is one mapped segment file being written. Writers reserve
+     * their bytes from used and add them to committed once written; the
+     * index entry is filled in by the roller after the segment is sealed.
+     */
+    static class Segment {
+        // reserve() result when the bytes do not fit
+        static final int FULL = -2;
+        // used of a sealed segment, above any capacity
+        private static final int SEALED = Integer.MAX_VALUE;
+
+        final int number;
+        final Path path;
+        final MappedByteBuffer buf;
+        private final AtomicInteger used = new AtomicInteger(SEGMENT_HEADER_BYTES);
+        private final AtomicInteger committed = new AtomicInteger(SEGMENT_HEADER_BYTES);
+        int end = 0;               // bytes used once sealed
+        long records = 0;
+        long firstRecord = 0;
+        long firstTime = 0;
+        long lastTime = 0;
+
+        private Segment(int number, Path path, MappedByteBuffer buf) {
+            this.number = number;
+            this.path = path;
+            this.buf = buf;
+        }
+
+        // Return the offset of n reserved bytes, or FULL
+        int reserve(int n) {
+            int at;
+            do {
+                at = used.get();
+                if (at > buf.capacity() - n) {
+                    return FULL;
+                }
+            } while (!used.compareAndSet(at, at + n));
+            return at;
+        }
+
+        void commit(int n) {
+            committed.addAndGet(n);
+        }
+
+        // Stop the reservations; the ones made before are still written
+        void seal() {
+            end = used.getAndSet(SEALED);
+        }
+
+        // Wait, at most a second, for the records reserved before seal()
+        void await_commits() {
+            long deadline = System.nanoTime() + 1000000000L;
+            while (committed.get() < end && System.nanoTime() - deadline < 0) {
+                LockSupport.parkNanos(10000);
+            }
+        }
+
+        // Count the records and find their first and last times
+        void scan() {
+            long first = Long.MAX_VALUE;
+            long last = Long.MIN_VALUE;
+            int at = SEGMENT_HEADER_BYTES;
+            while (at < end) {
+                int length = buf.getInt(at);
+                if (length == 0) {
+                    break;
+                }
+                long time = buf.getLong(at + 16);
+                first = Math.min(first, time);
+                last = Math.max(last, time);
+                records++;
+                at += length;
+            }
+            if (records > 0) {
+                firstTime = first;
+                lastTime = last;
+            }
+        }
+
+        /**
+         * This method creates a zero-filled segment file, maps it, writes
+         * its header and touches every page so that appending to it does
+         * not fault.
+         */
+        static Segment create(int number) throws IOException {
+            Path path = RUN_DIR.resolve(segment_name(number));
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES);
+                buf.putInt(0, SEGMENT_MAGIC);
+                buf.putInt(4, number);
+                buf.putLong(8, System.currentTimeMillis());
+                buf.putLong(16, System.nanoTime());
+                for (int at = PAGE; at < buf.capacity(); at += PAGE) {
+                    buf.put(at, (byte) 0);
+                }
+                return new Segment(number, path, buf);
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * This class reads a recording written by Recorder. The segments are
+ * mapped read-only one at a time and the iterator returns a view of each
+ * record in place, so nothing is copied out of the files. The index is
+ * used to skip the segments that end before a given time; segments that
+ * have no index entry, such as the last one of a process that was killed,
+ * are read until their first empty record.
+ *
+ * The directory is the run directory of one recording, or the
+ * -Drecorder.dir directory, whose newest run is read.
+ *
+ * Usage: java RecordingReader [directory] [number of last records, 20]
+ * prints the segments and the last records, e.g. up to a pole falling.
+ */
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+class RecordingReader implements Iterable<RecordView> {
+    private final Path dir;
+    private final int[] segments;
+    // index entries by segment number, {records, first time, last time}
+    private final Map<Integer, long[]> index = new HashMap<Integer, long[]>();
+    private long fromTime = Long.MIN_VALUE;
+
+    RecordingReader(Path dir) throws IOException {
+        dir = run_of(dir);
+        this.dir = dir;
+        ArrayList<Integer> numbers = new ArrayList<Integer>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "segment-*.rec")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                numbers.add(Integer.parseInt(name.substring(8, name.length() - 4)));
+            }
+        }
+        Collections.sort(numbers);
+        segments = new int[numbers.size()];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = numbers.get(i);
+        }
+        read_index();
+    }
+
+    // The directory itself if it holds a recording, else its newest run
+    static Path run_of(Path dir) throws IOException {
+        if (Files.exists(dir.resolve("index.rec"))) {
+            return dir;
+        }
+        Path newest = null;
+        try (DirectoryStream<Path> runs = Files.newDirectoryStream(dir, "run-*")) {
+            for (Path run : runs) {
+                // run-<yyyyMMdd-HHmmss>-<pid> sorts by start time
+                if (newest == null || run.getFileName().toString().compareTo(newest.getFileName().toString()) > 0) {
+                    newest = run;
+                }
+            }
+        }
+        return newest != null ? newest : dir;
+    }
+
+    private void read_index() throws IOException {
+        Path file = dir.resolve("index.rec");
+        if (!Files.exists(file)) {
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (buf.remaining() < 4 || buf.getInt() != Recorder.INDEX_MAGIC) {
+            throw new IOException(file + " is not a recording index");
+        }
+        while (buf.remaining() >= Recorder.INDEX_ENTRY_BYTES) {
+            int number = buf.getInt();
+            long records = buf.getInt();
+            buf.getLong();   // first record number
+            long firstTime = buf.getLong();
+            long lastTime = buf.getLong();
+            buf.getInt();    // bytes used
+            index.put(number, new long[] {records, firstTime, lastTime});
+        }
+    }
+
+    int[] get_segments() {
+        return segments;
+    }
+
+    // {records, first time, last time} of an indexed segment, or null
+    long[] get_index_entry(int segment) {
+        return index.get(segment);
+    }
+
+    /**
+     * This method makes the iterators skip the records before the given
+     * time (System.nanoTime() of the recording process).
+     */
+    RecordingReader from_time(long time) {
+        fromTime = time;
+        return this;
+    }
+
+    /**
+     * Return an iterator over the records. It returns the same RecordView,
+     * moved to the next record, on every call of next().
+     */
+    public Iterator<RecordView> iterator() {
+        return new Iterator<RecordView>() {
+            private int segment = -1;
+            private final RecordView view = new RecordView();
+            private boolean ready = false;
+
+            public boolean hasNext() {
+                if (ready) {
+                    return true;
+                }
+                while (true) {
+                    if (view.buf != null && view.advance()) {
+                        if (view.get_time() >= fromTime) {
+                            ready = true;
+                            return true;
+                        }
+                        continue;
+                    }
+                    if (!open_next()) {
+                        return false;
+                    }
+                }
+            }
+
+            public RecordView next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ready = false;
+                return view;
+            }
+
+            private boolean open_next() {
+                while (++segment < segments.length) {
+                    long[] entry = index.get(segments[segment]);
+                    if (entry != null && (entry[0] == 0 || entry[2] < fromTime)) {
+                        continue;
+                    }
+                    try {
+                        view.buf = map(segments[segment]);
+                        view.at = -1;
+                        return true;
+                    } catch (IOException ioe) {
+                        throw new UncheckedIOException(ioe);
+                    }
+                }
+                return false;
+            }
+        };
+    }
+
+    private ByteBuffer map(int number) throws IOException {
+        try (FileChannel channel = FileChannel.open(dir.resolve(Recorder.segment_name(number)),
+                StandardOpenOption.READ)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.capacity() < Recorder.SEGMENT_HEADER_BYTES || buf.getInt(0) != Recorder.SEGMENT_MAGIC) {
+                throw new IOException(Recorder.segment_name(number) + " is not a recording segment");
+            }
+            return buf;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Paths.get(args.length > 0 ? args[0] : "recording");
+        int last = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        RecordingReader reader = new RecordingReader(dir);
+        System.out.println(reader.dir);
+        for (int number : reader.get_segments()) {
+            long[] entry = reader.get_index_entry(number);
+            System.out.println(Recorder.segment_name(number)
+                    + (entry == null ? "  not indexed" : "  " + entry[0] + " records"));
+        }
+
+        // keep the positions of the last records only
+        long[] kinds = new long[Recorder.STEP + 1];
+        long total = 0;
+        long firstTime = 0;
+        for (RecordView r : reader) {
+            if (total == 0) {
+                firstTime = r.get_time();
+            }
+            if (r.get_kind() >= 0 && r.get_kind() < kinds.length) {
+                kinds[r.get_kind()]++;
+            }
+            total++;
+        }
+        System.out.println(total + " records: " + kinds[Frame.SENSOR] + " sensor, "
+                + kinds[Frame.SENSOR_DELTA] + " sensor delta, " + kinds[Frame.ACTION] + " action, "
+                + kinds[Frame.ACTION_DELTA] + " action delta, " + kinds[Recorder.STEP] + " step");
+
+        long n = 0;
+        for (RecordView r : reader) {
+            if (n++ >= total - last) {
+                System.out.println(String.format("%14.6f ms  %s", (r.get_time() - firstTime) / 1e6, r));
+            }
+        }
+    }
+}
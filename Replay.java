@@ -0,0 +1,297 @@
+/**
+ * This program replays recorded sessions (see Recorder) into a controller,
+ * without sockets and without pacing, to check a controller change
+ * against real sessions.
+ *
+ * open    Every recorded sensor frame is fed to the controller, keeping
+ *         the last known data of the poles as the server does, and the
+ *         actions it produces are compared with the recorded actions
+ *         that answered the frame. Reports the differences and frames/sec.
+ * closed  Physics is re-simulated from the recorded initial state with
+ *         the controller in the loop, sampling the sensor at the recorded
+ *         rate, for as long as the recording lasted. Reports whether the
+ *         poles still fall and how far the run departs from the recording.
+ *
+ * Usage: java Replay open | closed controller recording-directory...
+ *   controller  one of Controllers.NAMES
+ */
+import java.io.*;
+import java.nio.file.*;
+import java.util.HashMap;
+
+public class Replay {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.out.println("Usage: java Replay open | closed controller recording-directory...");
+            return;
+        }
+        boolean closed = args[0].equals("closed");
+        int controllerId = Controllers.id_of(args[1]);
+
+        if (!closed) {
+            OpenLoopReplay replay = new OpenLoopReplay(controllerId);
+            long start = System.nanoTime();
+            for (int i = 2; i < args.length; i++) {
+                long frames = replay.frames, different = replay.different;
+                replay.replay(new RecordingReader(Paths.get(args[i])));
+                System.out.println(args[i] + ": " + (replay.frames - frames) + " sensor frames, "
+                        + (replay.different - different) + " different actions");
+            }
+            replay.print_summary(System.nanoTime() - start);
+        } else {
+            for (int i = 2; i < args.length; i++) {
+                ClosedLoopReplay replay = new ClosedLoopReplay(new RecordingReader(Paths.get(args[i])));
+                System.out.print(args[i] + ": ");
+                replay.run(Controllers.create(controllerId));
+                replay.print_summary();
+            }
+        }
+    }
+}
+
+/**
+ * This class feeds the recorded sensor frames of any number of sessions to
+ * a controller and compares its actions with the recorded ones.
+ */
+class OpenLoopReplay {
+    // actions further apart than this count as different
+    static final double TOLERANCE = 1e-9;
+
+    private final int controllerId;
+    // sessions by source and session number
+    private final HashMap<Long, Session> sessions = new HashMap<Long, Session>();
+    private final Frame frame = new Frame(4);
+
+    long frames = 0;
+    long compared = 0;
+    long different = 0;
+    long unanswered = 0;
+    double maxDifference = 0;
+    long computeNanos = 0;
+
+    OpenLoopReplay(int controllerId) {
+        this.controllerId = controllerId;
+    }
+
+    /**
+     * This class is the replay state of one recorded session.
+     */
+    static class Session {
+        final SensorState state = new SensorState();
+        final Controller controller;
+        double[] actions = new double[1];
+        long seq = -1;   // sensor frame waiting for its recorded actions
+
+        Session(Controller controller) {
+            this.controller = controller;
+        }
+    }
+
+    /**
+     * This method replays all the sessions of a recording.
+     */
+    void replay(RecordingReader reader) throws IOException {
+        for (RecordView r : reader) {
+            short kind = r.get_kind();
+            if (kind == Frame.SENSOR || kind == Frame.SENSOR_DELTA) {
+                on_sensor(session(r), r);
+            } else if (kind == Frame.ACTION || kind == Frame.ACTION_DELTA) {
+                on_action(session(r), r);
+            }
+        }
+        sessions.clear();
+    }
+
+    private Session session(RecordView r) {
+        long key = ((long) r.get_source() << 32) | (r.get_session() & 0xffffffffL);
+        Session s = sessions.get(key);
+        if (s == null) {
+            s = new Session(Controllers.create(controllerId));
+            sessions.put(key, s);
+        }
+        return s;
+    }
+
+    private void on_sensor(Session s, RecordView r) throws IOException {
+        int count = r.get_count();
+        if (frame.values.length < count) {
+            frame.values = new double[count];
+        }
+        for (int i = 0; i < count; i++) {
+            frame.values[i] = r.get_value(i);
+        }
+        frame.type = (byte) r.get_kind();
+        frame.poles = r.get_poles();
+        frame.seq = r.get_seq();
+        s.state.apply(frame);
+        if (s.actions.length < s.state.poles) {
+            s.actions = new double[s.state.poles];
+        }
+
+        // the actions of all the poles, the recorded ones are compared by id
+        long t0 = System.nanoTime();
+        s.controller.compute(s.state.data, s.state.poles, s.actions);
+        computeNanos += System.nanoTime() - t0;
+        if (s.seq >= 0) {
+            unanswered++;
+        }
+        s.seq = frame.seq;
+        frames++;
+    }
+
+    private void on_action(Session s, RecordView r) {
+        if (r.get_seq() != s.seq) {
+            return;
+        }
+        s.seq = -1;
+        int poles = r.get_poles();
+        boolean delta = r.get_kind() == Frame.ACTION_DELTA;
+        for (int e = 0; e < poles; e++) {
+            int id = delta ? (int) r.get_value(e * 2) : e;
+            double recorded = delta ? r.get_value(e * 2 + 1) : r.get_value(e);
+            if (id < 0 || id >= s.state.poles) {
+                continue;
+            }
+            double difference = Math.abs(s.actions[id] - recorded);
+            if (difference > TOLERANCE) {
+                different++;
+            }
+            maxDifference = Math.max(maxDifference, difference);
+            compared++;
+        }
+    }
+
+    void print_summary(long wallNanos) {
+        System.out.println(String.format("%s: %d sensor frames in %.3f secs, %.0f frames/sec (controller %.0f ns/frame)",
+                Controllers.NAMES[controllerId], frames, wallNanos / 1e9, frames / (wallNanos / 1e9),
+                frames > 0 ? (double) computeNanos / frames : 0));
+        System.out.println(String.format("%d actions compared, %d different, max difference %.6g, %d frames not answered",
+                compared, different, maxDifference, unanswered));
+    }
+}
+
+/**
+ * This class re-simulates a recorded client session from its initial
+ * state (the STEP record of step 0) with another controller in the loop.
+ * The step size and the sensor period are taken from the recording; the
+ * run uses the default pole parameters, track and integrator, and a
+ * sensor that sends every sample.
+ */
+class ClosedLoopReplay {
+    private double tau;
+    private int stepsPerSample;
+    private double[] initial;     // STEP values of step 0
+    private int poles;
+    private double recordedEnd;
+    private double recordedFailure = -1;
+    private double[] recordedAngle = new double[0];   // pole 0, per step
+
+    double simulatedEnd;
+    double failure = -1;
+    double maxAngleDeviation = 0;
+
+    ClosedLoopReplay(RecordingReader reader) throws IOException {
+        double firstStepTime = Double.NaN;
+        long steps = 0;
+        long firstSample = -1, secondSample = -1;
+        for (RecordView r : reader) {
+            if (r.get_source() != Recorder.CLIENT) {
+                continue;
+            }
+            if (r.get_kind() == Recorder.STEP) {
+                if (r.get_seq() == 0) {
+                    poles = r.get_poles();
+                    initial = new double[r.get_count()];
+                    for (int i = 0; i < initial.length; i++) {
+                        initial[i] = r.get_value(i);
+                    }
+                    continue;
+                }
+                if (initial == null) {
+                    continue;
+                }
+                steps = r.get_seq();
+                if (steps == 1) {
+                    firstStepTime = r.get_value(0);
+                }
+                recordedEnd = r.get_value(0);
+                if (recordedFailure < 0 && any_failed(r)) {
+                    recordedFailure = recordedEnd;
+                }
+                if (recordedAngle.length <= steps) {
+                    recordedAngle = java.util.Arrays.copyOf(recordedAngle, (int) Math.max(1024, 2 * steps));
+                }
+                recordedAngle[(int) steps] = r.get_step_value(0, 0);
+            } else if (r.get_kind() == Frame.SENSOR || r.get_kind() == Frame.SENSOR_DELTA) {
+                if (firstSample < 0) {
+                    firstSample = steps;
+                } else if (secondSample < 0) {
+                    secondSample = steps;
+                }
+            }
+        }
+        if (initial == null) {
+            throw new IOException("the recording has no initial state of the client");
+        }
+        tau = firstStepTime - initial[0];
+        stepsPerSample = secondSample > firstSample ? (int) (secondSample - firstSample) : 1;
+    }
+
+    private static boolean any_failed(RecordView r) {
+        for (int i = 0; i < r.get_poles(); i++) {
+            if (r.get_step_value(5, i) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * This method runs the simulation with the given controller until the
+     * recorded end time or until a pole falls.
+     */
+    void run(Controller controller) {
+        double[] pos = new double[poles];
+        for (int i = 0; i < poles; i++) {
+            pos[i] = initial[1 + 2 * poles + i];
+        }
+        Physics physics = new Physics(tau, 0, pos, new PoleParams());
+        PendulumStore store = physics.get_store();
+        for (int i = 0; i < poles; i++) {
+            store.angle[i] = initial[1 + i];
+            store.angleDot[i] = initial[1 + poles + i];
+            store.posDot[i] = initial[1 + 3 * poles + i];
+            store.action[i] = initial[1 + 4 * poles + i];
+        }
+        physics.simulationTime = initial[0];
+
+        double[] sensorData = new double[4 * poles];
+        double[] actions = new double[poles];
+        long steps = 0;
+        while (physics.get_simTime() < recordedEnd - tau / 2 && physics.pole_in_good_state) {
+            if (steps % stepsPerSample == 0) {
+                physics.get_sensor_data(sensorData);
+                controller.compute(sensorData, poles, actions);
+                physics.update_actions(actions);
+            }
+            physics.step();
+            steps++;
+            if (steps < recordedAngle.length) {
+                maxAngleDeviation = Math.max(maxAngleDeviation, Math.abs(store.angle[0] - recordedAngle[(int) steps]));
+            }
+        }
+        simulatedEnd = physics.get_simTime();
+        if (!physics.pole_in_good_state) {
+            failure = simulatedEnd;
+        }
+    }
+
+    void print_summary() {
+        System.out.println(String.format("%d poles, step %.4f s, sensor every %d steps; recorded: %s; replayed: %s; max angle deviation of pole 0 %.6g rad",
+                poles, tau, stepsPerSample,
+                recordedFailure < 0 ? String.format("up %.3f secs", recordedEnd) : String.format("failed at %.3f secs", recordedFailure),
+                failure < 0 ? String.format("up %.3f secs", simulatedEnd) : String.format("failed at %.3f secs", failure),
+                maxAngleDeviation));
+    }
+}
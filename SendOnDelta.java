@@ -0,0 +1,75 @@
+/**
+ * This class decides what an event based sensor sends. Every pole is
+ * checked at every sample, and a pole is sent when one of its variables
+ * has moved out of its deadband around the value last sent for it. The
+ * poles that did not change are left out of the frame, the controller
+ * keeps their last known data. A full frame is sent for the first sample,
+ * every KEYFRAME_INTERVAL samples and whenever the delta frame would not
+ * be smaller.
+ */
+class SendOnDelta {
+    static final int KEYFRAME_INTERVAL = 100;
+    // deadbands of angleDot (rad/s), pos (m) and posDot (m/s)
+    static final double ANGLE_DOT_DEADBAND = 0.02;
+    static final double POS_DEADBAND = 0.005;
+    static final double POS_DOT_DEADBAND = 0.02;
+
+    private final double[] deadband;
+    private final double[] sent;
+    private int samples = 0;
+    // payload of the last SENSOR_DELTA: count entries of {pole id, 4 values}
+    double[] values;
+    int count;
+
+    /**
+     * @param angleDeadband deadband of the angle in radians
+     */
+    SendOnDelta(int poles, double angleDeadband) {
+        this.deadband = new double[] {angleDeadband, ANGLE_DOT_DEADBAND, POS_DEADBAND, POS_DOT_DEADBAND};
+        this.sent = new double[4 * poles];
+        this.values = new double[5 * poles];
+    }
+
+    // The last values sent for every pole, as the controller knows them
+    double[] get_sent() {
+        return sent;
+    }
+
+    // The last frame was not sent: make the next sample a full frame
+    void resend_all() {
+        samples = 0;
+    }
+
+    /**
+     * This method compares a sample with the data last sent.
+     * Return Frame.SENSOR if the whole sample has to be sent,
+     * Frame.SENSOR_DELTA if values/count hold the poles that changed,
+     * or 0 if no pole changed.
+     */
+    byte sample(double[] data, int poles) {
+        count = 0;
+        for (int i = 0; i < poles; i++) {
+            int at = i * 4;
+            if (Math.abs(data[at] - sent[at]) > deadband[0]
+                    || Math.abs(data[at+1] - sent[at+1]) > deadband[1]
+                    || Math.abs(data[at+2] - sent[at+2]) > deadband[2]
+                    || Math.abs(data[at+3] - sent[at+3]) > deadband[3]) {
+                int e = count * 5;
+                values[e] = i;
+                for (int k = 0; k < 4; k++) {
+                    values[e+1+k] = data[at+k];
+                    sent[at+k] = data[at+k];
+                }
+                count++;
+            }
+        }
+
+        boolean keyframe = samples % KEYFRAME_INTERVAL == 0;
+        samples++;
+        if (keyframe || 5 * count >= 4 * poles) {
+            System.arraycopy(data, 0, sent, 0, 4 * poles);
+            return Frame.SENSOR;
+        }
+        return count > 0 ? Frame.SENSOR_DELTA : 0;
+    }
+}
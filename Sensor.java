@@ -10,85 +10,184 @@ enum TriggerType {
 }
 
 class Sensor implements Runnable {
+    // frames waiting for the sending thread; a sample that finds it full is dropped
+    static final int OUTBOX_CAPACITY = 4;
 
     Physics physics;
-    private ObjectOutputStream out;
+    private Transport transport;
     private double samplingPeriod_phy;  // delay in physical time (in second)
-    private long samplingPeriod_phy_ms;  // delay in physical time (in ms)
     private double samplingPeriod_sim;  // delay in simulation time (in second)
     private TriggerType triggerType;
     private double threshold;      // only applicable in event based sensor (in degrees)
-
-    Sensor(Physics phy, ObjectOutputStream out, TriggerType type, double threshold, double sensorSamplingPeriod_sim, double sensorSamplingPeriod_phy) {
+    private long seq = 0;          // sequence number of the last sample sent
+    private final long[] stamps = new long[Frame.STAMPS];
+    private SendOnDelta delta;     // only applicable in event based sensor
+    private StateSnapshot snapshot;
+    private final FrameRing outbox = new FrameRing(OUTBOX_CAPACITY);
+    private Thread sender;
+    // Sensor will get four data from each pendulum
+    // {angle, angleDot, pos, posDot}
+    private double sensorData[];
+
+    Sensor(Physics phy, Transport transport, TriggerType type, double threshold, double sensorSamplingPeriod_sim, double sensorSamplingPeriod_phy) {
         this.physics = phy;
-        this.out = out;
+        this.transport = transport;
         this.triggerType = type;
         this.samplingPeriod_phy = sensorSamplingPeriod_phy;
         this.samplingPeriod_sim = sensorSamplingPeriod_sim;
-        this.samplingPeriod_phy_ms = Math.round(samplingPeriod_phy*1000);
         this.threshold = threshold;
+        if (type == TriggerType.EVENT_TRIGGER) {
+            this.delta = new SendOnDelta(phy.NUM_POLES, Math.toRadians(threshold));
+        }
+        this.snapshot = new StateSnapshot(phy.NUM_POLES);
+        this.sensorData = new double[4 * phy.NUM_POLES];
     }
 
 
     public synchronized void run() {
+        TickScheduler scheduler = new TickScheduler();
+        schedule(scheduler);
+        scheduler.run();
+    }
 
-        while (true) {
-            // Sensor will get four data from each pendulum
-            // {angle, angleDot, pos, posDot}
-            double sensorData[] = new double[4 * physics.NUM_POLES];
-            Pendulum[] pendulums = physics.get_pendulums();
-
-            for (int i = 0; i < pendulums.length; i++) {
-                   synchronized(pendulums[i]) {
-                   double angle, angleDot, pos, posDot;
-                   angle = pendulums[i].get_angle();
-                   angleDot = pendulums[i].get_angleDot();
-                   pos = pendulums[i].get_pos();
-                   posDot = pendulums[i].get_posDot();
-
-                   if (triggerType == TriggerType.EVENT_TRIGGER) {
-                     // Do not send if it is in event triggered mode and the angle is small
-                     if (angle * 180 / 3.14 < threshold && angle * 180 / 3.14 > -threshold) {
-                       try {
-                           Thread.sleep(samplingPeriod_phy_ms);
-                       } catch (Exception e) {
-                           e.printStackTrace();
-                       }
-                       continue;
-                     }
-                   }
-                   sensorData[i*4+0] = angle;
-                   sensorData[i*4+1] = angleDot;
-                   sensorData[i*4+2] = pos;
-                   sensorData[i*4+3] = posDot;
-                }
+    /**
+     * This method adds the samples to a scheduler, one every sampling
+     * period of physical time, and starts the thread that sends them, so a
+     * transport that blocks never holds up the scheduler. A sample that
+     * finds OUTBOX_CAPACITY frames still waiting to be sent is dropped and
+     * counted in Metrics.SENSOR_DROPPED.
+     */
+    TickTask schedule(TickScheduler scheduler) {
+        start_sender();
+        return scheduler.add("sensor", Math.round(samplingPeriod_phy * 1e9), false, new Runnable() {
+            public void run() {
+                sample();
             }
+        });
+    }
 
-            sendMessage_doubleArray(sensorData);
-            System.out.println("---------------");
-            
-            try {
-                Thread.sleep(samplingPeriod_phy_ms);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+    /**
+     * This method stops the sending thread once it has sent the frames
+     * already queued, waiting for it at most a second.
+     */
+    void stop() throws InterruptedException {
+        outbox.close();
+        Thread t = sender;
+        if (t != null) {
+            t.join(1000);
+        }
+    }
 
+    /**
+     * This method reads the poles and queues a sample of them.
+     */
+    void sample() {
+        physics.get_publisher().read(snapshot);
+        stamps[Frame.SAMPLED] = System.nanoTime();
+
+        for (int i = 0; i < snapshot.size; i++) {
+            double angle, angleDot, pos, posDot;
+            angle = snapshot.angle[i];
+            angleDot = snapshot.angleDot[i];
+            pos = snapshot.pos[i];
+            posDot = snapshot.posDot[i];
+
+            sensorData[i*4+0] = angle;
+            sensorData[i*4+1] = angleDot;
+            sensorData[i*4+2] = pos;
+            sensorData[i*4+3] = posDot;
+        }
+
+        if (triggerType == TriggerType.EVENT_TRIGGER) {
+            // Send only the poles that moved out of their deadbands
+            byte type = delta.sample(sensorData, snapshot.size);
+            boolean queued = true;
+            if (type == Frame.SENSOR_DELTA) {
+                queued = sendMessage_delta(delta.values, delta.count);
+            } else if (type == Frame.SENSOR) {
+                queued = sendMessage_doubleArray(sensorData);
+            }
+            if (!queued) {
+                // the controller did not get the values delta took as sent
+                delta.resend_all();
+            }
+        } else {
+            sendMessage_doubleArray(sensorData);
         }
     }
 
     /**
-     * This method sends the Double message on the object output stream.
+     * This method queues the sensor data as a frame to the controller.
+     * Return false if the frame was dropped.
+     */
+    boolean sendMessage_doubleArray(double[] data) {
+        return queue(Frame.SENSOR, data, physics.NUM_POLES);
+    }
+
+    /**
+     * This method queues the data of the poles that changed as a
+     * SENSOR_DELTA frame, {pole id, angle, angleDot, pos, posDot} for each
+     * of them. Return false if the frame was dropped.
      */
-    void sendMessage_doubleArray(double[] data) {
+    boolean sendMessage_delta(double[] values, int poles) {
+        return queue(Frame.SENSOR_DELTA, values, poles);
+    }
+
+    // A dropped frame takes no sequence number, the controller sees no gap
+    private boolean queue(byte type, double[] values, int poles) {
+        if (!outbox.offer(type, values, poles, seq + 1, stamps)) {
+            Metrics.SENSOR_DROPPED.increment();
+            return false;
+        }
+        seq++;
+        return true;
+    }
+
+    private void start_sender() {
+        sender = new Thread(new Runnable() {
+            public void run() {
+                Frame frame = new Frame(4 * physics.NUM_POLES);
+                try {
+                    while (true) {
+                        outbox.take(frame);
+                        send(frame);
+                    }
+                } catch (EOFException e) {
+                    // stopped
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "sensor-sender");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    // Send a queued frame, on the sending thread
+    private void send(Frame frame) {
         try {
-            out.writeObject(data);
-            out.flush();
-            
-            System.out.print("client> ");
-            for(int i=0; i< data.length; i++){
-                System.out.print(data[i] + "  ");
+            frame.stamps[Frame.SENT] = System.nanoTime();
+            transport.send(frame.type, frame.values, frame.poles, frame.seq, frame.stamps);
+            Metrics.SENSOR_FRAMES.increment();
+            if (Recorder.ENABLED) {
+                Recorder.frame(Recorder.CLIENT, 0, frame.type, frame.values, frame.poles, frame.seq);
+            }
+
+            if (Telemetry.SENSOR >= Telemetry.INFO) {
+                Telemetry.record(Telemetry.CAT_SENSOR, Telemetry.EV_SENSOR_SENT, (int) frame.seq,
+                    frame.poles, 0, 0, 0);
+            }
+            if (Telemetry.SENSOR >= Telemetry.DEBUG) {
+                // a delta frame puts the pole id before the 4 values
+                int width = Frame.values_per_pole(frame.type);
+                double[] v = frame.values;
+                for (int e = 0; e < frame.poles; e++) {
+                    int at = e * width + width - 4;
+                    int id = width == 4 ? e : (int) v[e * width];
+                    Telemetry.record(Telemetry.CAT_SENSOR, Telemetry.EV_SENSOR_DATA, id,
+                        v[at], v[at+1], v[at+2], v[at+3]);
+                }
             }
-            System.out.println();
 
         } catch (IOException ioException) {
             ioException.printStackTrace();
@@ -96,4 +195,3 @@ class Sensor implements Runnable {
     }
 
 }
-
@@ -0,0 +1,72 @@
+/**
+ * This class keeps the last known sensor data of every pole of a session.
+ * A SENSOR frame replaces all of it, a SENSOR_DELTA frame updates the poles
+ * it carries. After apply(), the poles of the frame are changed[0..count-1]
+ * and their data, {angle, angleDot, pos, posDot} each, is in packed.
+ */
+import java.io.*;
+
+class SensorState {
+    double[] data = new double[0];
+    int poles = 0;
+    boolean sparse = false;
+    int count = 0;
+    int[] changed = new int[0];
+    double[] packed = new double[0];
+    private double[] pairs = new double[0];
+
+    /**
+     * This method applies a SENSOR or SENSOR_DELTA frame.
+     * @throws IOException if a delta names a pole no full frame has carried
+     */
+    void apply(Frame frame) throws IOException {
+        if (frame.type == Frame.SENSOR) {
+            if (data.length < 4 * frame.poles) {
+                data = new double[4 * frame.poles];
+            }
+            System.arraycopy(frame.values, 0, data, 0, 4 * frame.poles);
+            poles = frame.poles;
+            sparse = false;
+            count = poles;
+            packed = data;
+            return;
+        }
+
+        count = frame.poles;
+        if (changed.length < count) {
+            changed = new int[count];
+        }
+        if (packed == data || packed.length < 4 * count) {
+            packed = new double[4 * Math.max(count, 1)];
+        }
+        double[] v = frame.values;
+        for (int e = 0; e < count; e++) {
+            int id = (int) v[e*5];
+            if (id < 0 || id >= poles) {
+                throw new IOException("delta for unknown pole " + id);
+            }
+            changed[e] = id;
+            for (int k = 0; k < 4; k++) {
+                data[id*4+k] = v[e*5+1+k];
+                packed[e*4+k] = v[e*5+1+k];
+            }
+        }
+        sparse = true;
+    }
+
+    /**
+     * This method returns the payload of an ACTION_DELTA frame, {pole id,
+     * action} for each pole of the last delta, from the actions computed
+     * over packed.
+     */
+    double[] pair_actions(double[] actions) {
+        if (pairs.length < 2 * count) {
+            pairs = new double[2 * count];
+        }
+        for (int e = 0; e < count; e++) {
+            pairs[e*2] = changed[e];
+            pairs[e*2+1] = actions[e];
+        }
+        return pairs;
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * This class tracks the sequence numbers received in one direction of a
+ * session. A frame newer than the newest so far is accepted and the gap
+ * before it counted as lost. An older frame is dropped; a bitmap of the
+ * WINDOW sequence numbers behind the newest tells a late frame, which
+ * fills a gap and is no longer counted as lost, from a duplicate. A frame
+ * older than the window cannot be told apart and is counted as too old.
+ * Control frames (BYE, CONTROLLER, whose sequence field is not a sequence
+ * number) always pass.
+ */
+class SequenceFilter {
+    static final int WINDOW = 64;
+
+    private long newest = 0;
+    // bit i set if newest - i has been received
+    private long received = 0;
+    long accepted = 0;
+    long lost = 0;
+    long late = 0;
+    long duplicates = 0;
+    long tooOld = 0;
+
+    synchronized boolean accept(Frame frame) {
+        if (frame.type == Frame.BYE || frame.type == Frame.CONTROLLER) {
+            return true;
+        }
+        long seq = frame.seq;
+        if (seq > newest) {
+            long shift = seq - newest;
+            lost += shift - 1;
+            received = shift < WINDOW ? (received << shift) | 1 : 1;
+            newest = seq;
+            accepted++;
+            return true;
+        }
+        long age = newest - seq;
+        if (age >= WINDOW) {
+            tooOld++;
+        } else if ((received & (1L << age)) != 0) {
+            duplicates++;
+        } else {
+            received |= 1L << age;
+            late++;
+            lost--;
+        }
+        return false;
+    }
+
+    synchronized String summary(String name) {
+        long frames = accepted + late + lost;
+        return String.format("%s: %d frames accepted, %d lost (%.2f%%), %d late or reordered, %d duplicates, %d too old to tell%n",
+                name, accepted, lost, frames > 0 ? 100.0 * lost / frames : 0, late, duplicates, tooOld);
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * This class creates the threads that run the blocking PoleServer_handler
+ * sessions. Virtual threads are looked up reflectively so that the server
+ * still compiles and runs with platform threads on older JDKs.
+ */
+import java.lang.reflect.*;
+
+class SessionThreads {
+    private static final Method ofVirtual;
+    private static final Method unstarted;
+
+    static {
+        Method of = null, un = null;
+        try {
+            of = Thread.class.getMethod("ofVirtual");
+            un = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+        } catch (Exception e) {
+            // not available before Java 21
+        }
+        ofVirtual = of;
+        unstarted = un;
+    }
+
+    static boolean virtual_available() {
+        return ofVirtual != null;
+    }
+
+    // Create an unstarted thread for the session
+    static Thread new_thread(Runnable session, boolean virtual) {
+        if (virtual && virtual_available()) {
+            try {
+                return (Thread) unstarted.invoke(ofVirtual.invoke(null), session);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        return new Thread(session);
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * This class publishes the state of the poles once per simulation step with
+ * a sequence lock. The physics thread is the only writer and never waits
+ * for readers; readers copy optimistically and retry if a step was
+ * published while they were copying, so they never see a torn state.
+ */
+import java.util.concurrent.locks.StampedLock;
+
+class SnapshotPublisher {
+    private final StampedLock lock = new StampedLock();
+    private final StateSnapshot shared;
+    private volatile long version = -1;
+
+    SnapshotPublisher(int size) {
+        shared = new StateSnapshot(size);
+    }
+
+    /**
+     * This method publishes the current state of the store. It must only be
+     * called from the thread that steps the simulation.
+     */
+    void publish(PendulumStore store, double simTime, boolean pole_in_good_state) {
+        long stamp = lock.writeLock();
+        try {
+            shared.copy_from(store);
+            shared.simTime = simTime;
+            shared.pole_in_good_state = pole_in_good_state;
+            shared.version = version + 1;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        version = shared.version;
+    }
+
+    // Version of the last published step
+    long version() {
+        return version;
+    }
+
+    /**
+     * This method refreshes the reader's snapshot with the last published
+     * step. Return false without copying anything if the reader already
+     * holds that step.
+     */
+    boolean read(StateSnapshot into) {
+        if (into.version == version) {
+            return false;
+        }
+        while (true) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                into.copy_from(shared);
+                if (lock.validate(stamp)) {
+                    return true;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * This class is a consistent copy of the state of all the poles taken at
+ * the end of one simulation step. Readers own their snapshot and refresh
+ * it from a SnapshotPublisher.
+ */
+class StateSnapshot {
+    long version = -1;       // step counter of the copied state, -1 if empty
+    double simTime;          // simulation time of the copied state
+    boolean pole_in_good_state;
+    final int size;
+    final double[] pos, posDot, angle, angleDot, action;
+    final byte[] state;
+
+    StateSnapshot(int size) {
+        this.size = size;
+        pos = new double[size];
+        posDot = new double[size];
+        angle = new double[size];
+        angleDot = new double[size];
+        action = new double[size];
+        state = new byte[size];
+    }
+
+    void copy_from(PendulumStore store) {
+        System.arraycopy(store.pos, 0, pos, 0, size);
+        System.arraycopy(store.posDot, 0, posDot, 0, size);
+        System.arraycopy(store.angle, 0, angle, 0, size);
+        System.arraycopy(store.angleDot, 0, angleDot, 0, size);
+        System.arraycopy(store.action, 0, action, 0, size);
+        System.arraycopy(store.state, 0, state, 0, size);
+    }
+
+    void copy_from(StateSnapshot other) {
+        System.arraycopy(other.pos, 0, pos, 0, size);
+        System.arraycopy(other.posDot, 0, posDot, 0, size);
+        System.arraycopy(other.angle, 0, angle, 0, size);
+        System.arraycopy(other.angleDot, 0, angleDot, 0, size);
+        System.arraycopy(other.action, 0, action, 0, size);
+        System.arraycopy(other.state, 0, state, 0, size);
+        version = other.version;
+        simTime = other.simTime;
+        pole_in_good_state = other.pole_in_good_state;
+    }
+}
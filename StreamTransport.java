@@ -0,0 +1,35 @@
+/**
+ * This class sends the frames on the data streams of a socket.
+ */
+import java.io.*;
+import java.net.Socket;
+
+class StreamTransport implements Transport {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    StreamTransport(Socket socket) throws IOException {
+        this.socket = socket;
+        socket.setTcpNoDelay(true);
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    }
+
+    public void send(byte type, double[] values, int poles, long seq, long[] stamps) throws IOException {
+        synchronized (out) {
+            Frame.write(out, type, values, poles, seq, stamps);
+            out.flush();
+        }
+    }
+
+    public void receive(Frame frame) throws IOException {
+        frame.read(in);
+    }
+
+    public void close() throws IOException {
+        in.close();
+        out.close();
+        socket.close();
+    }
+}
@@ -0,0 +1,276 @@
+/**
+ * This program runs many independent headless simulations of one pole in
+ * parallel to tune the controller and the loop parameters. Every
+ * parameter is either a grid of values, one row of the results table for
+ * each combination, or a uniform distribution drawn again for every
+ * trial of a row. Each trial runs until the pole fails or the duration
+ * is over; a row reports how many trials survived and the time to failure
+ * of the others.
+ *
+ * Usage: java Sweep [name=value,value,... | name=low:high] ...
+ *   controller  one of Controllers.NAMES (ladder)
+ *   tau         step size in seconds (0.01)
+ *   rate        sensor samples per simulation second (100)
+ *   angle       initial angle in radians (0)
+ *   pos         initial cart position (-2)
+ *   cartMass, poleMass, poleLength   PoleParams (1, 0.1, 1)
+ *   noise       standard deviation of the sensor noise, every variable (0)
+ *   latency     sensor samples between a sample and its actions (0)
+ *   gain        factor applied to the actions of the controller (1)
+ * and the settings trials (100), duration in sim. seconds (60),
+ * threads (all the processors) and seed (1). For example
+ *   java Sweep controller=ladder,schedule,lqr angle=-0.05:0.05 noise=0,0.001,0.01
+ */
+import java.util.*;
+import java.util.concurrent.*;
+
+public class Sweep {
+    static final String[] PARAMETERS = {"controller", "tau", "rate", "angle", "pos",
+            "cartMass", "poleMass", "poleLength", "noise", "latency", "gain"};
+    static final String[] DEFAULTS = {"ladder", "0.01", "100", "0", "-2",
+            "1", "0.1", "1", "0", "0", "1"};
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> spec = new LinkedHashMap<String, String>();
+        for (int k = 0; k < PARAMETERS.length; k++) {
+            spec.put(PARAMETERS[k], DEFAULTS[k]);
+        }
+        int trials = 100;
+        double duration = 60;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long seed = 1;
+        for (String arg : args) {
+            String[] kv = arg.split("=", 2);
+            if (kv.length != 2) {
+                throw new IllegalArgumentException("expected name=values: " + arg);
+            }
+            if (kv[0].equals("trials")) {
+                trials = Integer.parseInt(kv[1]);
+            } else if (kv[0].equals("duration")) {
+                duration = Double.parseDouble(kv[1]);
+            } else if (kv[0].equals("threads")) {
+                threads = Integer.parseInt(kv[1]);
+            } else if (kv[0].equals("seed")) {
+                seed = Long.parseLong(kv[1]);
+            } else if (spec.containsKey(kv[0])) {
+                spec.put(kv[0], kv[1]);
+            } else {
+                throw new IllegalArgumentException("unknown parameter " + kv[0]);
+            }
+        }
+
+        List<SweepRow> rows = SweepRow.grid(spec, trials);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        for (int r = 0; r < rows.size(); r++) {
+            SweepRow row = rows.get(r);
+            pool.invoke(new SweepTask(row, seed + (long) r * trials, duration, 0, trials));
+        }
+        double wall = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+
+        System.out.println(String.format("%-60s %7s %9s %9s %9s %9s",
+                "parameters", "trials", "survived", "p10 ttf", "p50 ttf", "mean ttf"));
+        double simulated = 0;
+        for (SweepRow row : rows) {
+            System.out.println(row.summary(duration));
+            simulated += row.get_simulated();
+        }
+        System.out.println(String.format("%d simulations, %.1f sim. secs in %.3f secs wall time on %d threads, %.0f sim. secs per wall sec",
+                rows.size() * trials, simulated, wall, threads, simulated / wall));
+    }
+}
+
+/**
+ * This class is one combination of the grid parameters: the distributions
+ * of the other parameters and the outcomes of its trials.
+ */
+class SweepRow {
+    private final String[] names;
+    private final String[] values;
+    // per parameter, low == high for a fixed value
+    private final double[] low, high;
+    final int controllerId;
+    // per trial, simulation time reached and whether the pole failed
+    final double[] time;
+    final boolean[] failed;
+
+    SweepRow(String[] names, String[] values, int trials) {
+        this.names = names;
+        this.values = values;
+        low = new double[names.length];
+        high = new double[names.length];
+        int id = Controllers.DEFAULT;
+        for (int k = 0; k < names.length; k++) {
+            if (names[k].equals("controller")) {
+                id = Controllers.id_of(values[k]);
+                continue;
+            }
+            String[] range = values[k].split(":");
+            low[k] = Double.parseDouble(range[0]);
+            high[k] = Double.parseDouble(range[range.length - 1]);
+        }
+        controllerId = id;
+        time = new double[trials];
+        failed = new boolean[trials];
+    }
+
+    /**
+     * This method returns a row for every combination of the values of the
+     * parameters given as lists.
+     */
+    static List<SweepRow> grid(Map<String, String> spec, int trials) {
+        String[] names = spec.keySet().toArray(new String[0]);
+        String[][] choices = new String[names.length][];
+        int combinations = 1;
+        for (int k = 0; k < names.length; k++) {
+            choices[k] = spec.get(names[k]).split(",");
+            combinations *= choices[k].length;
+        }
+        List<SweepRow> rows = new ArrayList<SweepRow>();
+        for (int c = 0; c < combinations; c++) {
+            String[] values = new String[names.length];
+            int rest = c;
+            for (int k = names.length - 1; k >= 0; k--) {
+                values[k] = choices[k][rest % choices[k].length];
+                rest /= choices[k].length;
+            }
+            rows.add(new SweepRow(names, values, trials));
+        }
+        return rows;
+    }
+
+    /**
+     * This method draws the value of parameter name for one trial.
+     */
+    double draw(String name, SplittableRandom random) {
+        for (int k = 0; k < names.length; k++) {
+            if (names[k].equals(name)) {
+                return low[k] == high[k] ? low[k] : low[k] + (high[k] - low[k]) * random.nextDouble();
+            }
+        }
+        throw new IllegalArgumentException("unknown parameter " + name);
+    }
+
+    double get_simulated() {
+        double total = 0;
+        for (double t : time) {
+            total += t;
+        }
+        return total;
+    }
+
+    /**
+     * This method returns the row of the results table. The percentiles of
+     * the time to failure count the trials that survived as lasting the
+     * whole duration.
+     */
+    String summary(double duration) {
+        StringBuilder sb = new StringBuilder();
+        for (int k = 0; k < names.length; k++) {
+            if (!values[k].equals(Sweep.DEFAULTS[k])) {
+                sb.append(names[k]).append('=').append(values[k]).append(' ');
+            }
+        }
+        int trials = time.length;
+        int survived = 0;
+        double failedTime = 0;
+        double[] ttf = new double[trials];
+        for (int t = 0; t < trials; t++) {
+            ttf[t] = failed[t] ? time[t] : duration;
+            if (failed[t]) {
+                failedTime += time[t];
+            } else {
+                survived++;
+            }
+        }
+        Arrays.sort(ttf);
+        return String.format("%-60s %7d %8.1f%% %9.3f %9.3f %9s",
+                sb.length() == 0 ? "defaults" : sb.toString().trim(), trials, 100.0 * survived / trials,
+                ttf[trials / 10], ttf[trials / 2],
+                survived == trials ? "-" : String.format("%.3f", failedTime / (trials - survived)));
+    }
+}
+
+/**
+ * This class runs the trials [lo, hi) of a row, split in halves until a
+ * task is a single trial. Each trial draws its parameters from a random
+ * generator seeded by its number, so a sweep is reproducible whatever the
+ * number of threads.
+ */
+class SweepTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final SweepRow row;
+    private final long seed;
+    private final double duration;
+    private final int lo, hi;
+
+    SweepTask(SweepRow row, long seed, double duration, int lo, int hi) {
+        this.row = row;
+        this.seed = seed;
+        this.duration = duration;
+        this.lo = lo;
+        this.hi = hi;
+    }
+
+    protected void compute() {
+        if (hi - lo == 1) {
+            run_trial(lo);
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        invokeAll(new SweepTask(row, seed, duration, lo, mid),
+                  new SweepTask(row, seed, duration, mid, hi));
+    }
+
+    private void run_trial(int trial) {
+        SplittableRandom random = new SplittableRandom(seed + trial);
+        double tau = row.draw("tau", random);
+        double rate = row.draw("rate", random);
+        PoleParams params = new PoleParams(row.draw("cartMass", random), row.draw("poleMass", random),
+                row.draw("poleLength", random), 30., 0.00005, 0.005);
+        Physics physics = new Physics(tau, 0, new double[] {row.draw("pos", random)}, params);
+        physics.get_store().angle[0] = row.draw("angle", random);
+        double noise = row.draw("noise", random);
+        int latency = (int) Math.round(row.draw("latency", random));
+        double gain = row.draw("gain", random);
+        Controller controller = Controllers.create(row.controllerId);
+        int stepsPerSample = Math.max(1, (int) Math.round(1.0 / rate / tau));
+
+        double[] sensorData = new double[4];
+        // actions of the last latency + 1 samples, the oldest one is applied
+        double[] pending = new double[latency + 1];
+        Arrays.fill(pending, 0.75);
+        double[] actions = new double[1];
+        long steps = 0;
+        while (physics.get_simTime() < duration && physics.pole_in_good_state) {
+            if (steps % stepsPerSample == 0) {
+                physics.get_sensor_data(sensorData);
+                if (noise > 0) {
+                    for (int k = 0; k < 4; k++) {
+                        sensorData[k] += noise * gaussian(random);
+                    }
+                }
+                controller.compute(sensorData, 1, actions);
+                System.arraycopy(pending, 1, pending, 0, latency);
+                pending[latency] = gain * actions[0];
+                physics.update_action(0, pending[0]);
+            }
+            physics.step();
+            steps++;
+        }
+        row.time[trial] = physics.get_simTime();
+        row.failed[trial] = !physics.pole_in_good_state;
+    }
+
+    // Standard normal variate (Marsaglia polar method)
+    private static double gaussian(SplittableRandom random) {
+        double u, v, s;
+        do {
+            u = 2 * random.nextDouble() - 1;
+            v = 2 * random.nextDouble() - 1;
+            s = u * u + v * v;
+        } while (s >= 1 || s == 0);
+        return u * Math.sqrt(-2 * Math.log(s) / s);
+    }
+}
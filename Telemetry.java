@@ -0,0 +1,211 @@
+/**
+ * This class replaces the console printing of the control loops with fixed
+ * size binary records. Producers claim a slot of a lock-free ring buffer,
+ * write the record into it and publish it; a background thread drains the
+ * ring into a file. When the ring is full records are dropped and counted
+ * rather than blocking the control loop.
+ *
+ * Every category has a level read once from the "telemetry" system
+ * property, e.g. -Dtelemetry=server:debug,sensor:info or -Dtelemetry=all:debug.
+ * The levels are static final, so a disabled call site such as
+ *     if (Telemetry.SENSOR >= Telemetry.INFO) { Telemetry.record(...); }
+ * is removed by the JIT. Records go to the file named by -Dtelemetry.file
+ * (telemetry.bin by default) and are read back with TelemetryDecoder.
+ *
+ * Record layout (RECORD_BYTES, big endian):
+ *   long   time      System.nanoTime()
+ *   short  category
+ *   short  event
+ *   int    id        pole id or sequence number, depending on the event
+ *   double v[4]
+ */
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+class Telemetry {
+    // Levels
+    static final int OFF = 0;
+    static final int INFO = 1;     // one record per frame or step
+    static final int DEBUG = 2;    // one record per pole
+
+    // Categories
+    static final short CAT_SERVER = 0;
+    static final short CAT_CONTROLLER = 1;
+    static final short CAT_SENSOR = 2;
+    static final short CAT_PHYSICS = 3;
+    static final String[] CATEGORY_NAMES = {"server", "controller", "sensor", "physics"};
+
+    // Events
+    static final short EV_SERVER_SENSOR = 0;    // id = pole, v = {angle, angleDot, pos, posDot}
+    static final short EV_SERVER_ACTIONS = 1;   // id = seq, v = {poles, first action}
+    static final short EV_CONTROL = 2;          // v = {angle, angleDot, pos, action}
+    static final short EV_SENSOR_SENT = 3;      // id = seq, v = {poles}
+    static final short EV_SENSOR_DATA = 4;      // id = pole, v = {angle, angleDot, pos, posDot}
+    static final short EV_APPLIED_ACTION = 5;   // id = pole, v = {action}
+    static final short EV_COLLISION = 6;        // id = pole, v = {other pole}
+    static final String[] EVENT_NAMES = {"server_sensor", "server_actions", "control",
+            "sensor_sent", "sensor_data", "applied_action", "collision"};
+
+    // Levels of the categories, fixed for the life of the JVM
+    static final int SERVER = level("server");
+    static final int CONTROLLER = level("controller");
+    static final int SENSOR = level("sensor");
+    static final int PHYSICS = level("physics");
+
+    static final int FILE_MAGIC = 0x544c4d31;   // "TLM1"
+    static final int RECORD_BYTES = 48;
+    private static final int CAPACITY = 1 << 16;   // records, power of two
+
+    private static final ByteBuffer ring = ByteBuffer.allocateDirect(CAPACITY * RECORD_BYTES);
+    // published[slot] = sequence + 1 once the record of that sequence is written
+    private static final AtomicLongArray published = new AtomicLongArray(CAPACITY);
+    private static final AtomicLong head = new AtomicLong();
+    private static volatile long tail = 0;
+    private static final AtomicLong dropped = new AtomicLong();
+
+    static {
+        if (SERVER + CONTROLLER + SENSOR + PHYSICS > OFF) {
+            start_writer(System.getProperty("telemetry.file", "telemetry.bin"));
+        }
+    }
+
+    private static int level(String category) {
+        String spec = System.getProperty("telemetry", "");
+        int level = OFF;
+        for (String item : spec.split(",")) {
+            String[] kv = item.trim().split(":");
+            if (kv.length != 2 || !(kv[0].equals(category) || kv[0].equals("all"))) {
+                continue;
+            }
+            if (kv[1].equals("debug")) {
+                level = DEBUG;
+            } else if (kv[1].equals("info")) {
+                level = Math.max(level, INFO);
+            }
+        }
+        return level;
+    }
+
+    /**
+     * This method appends one record to the ring buffer without blocking.
+     * Return false if the ring was full and the record was dropped.
+     */
+    static boolean record(short category, short event, int id,
+                          double v0, double v1, double v2, double v3) {
+        long seq;
+        do {
+            seq = head.get();
+            if (seq - tail >= CAPACITY) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        } while (!head.compareAndSet(seq, seq + 1));
+
+        int slot = (int) (seq & (CAPACITY - 1));
+        int at = slot * RECORD_BYTES;
+        ring.putLong(at, System.nanoTime());
+        ring.putShort(at + 8, category);
+        ring.putShort(at + 10, event);
+        ring.putInt(at + 12, id);
+        ring.putDouble(at + 16, v0);
+        ring.putDouble(at + 24, v1);
+        ring.putDouble(at + 32, v2);
+        ring.putDouble(at + 40, v3);
+        published.lazySet(slot, seq + 1);
+        return true;
+    }
+
+    // Number of records dropped because the writer fell behind
+    static long get_dropped() {
+        return dropped.get();
+    }
+
+    private static void start_writer(String file) {
+        final FileChannel channel;
+        try {
+            channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            ByteBuffer header = ByteBuffer.allocate(12);
+            header.putInt(FILE_MAGIC).putInt(RECORD_BYTES).putInt(CATEGORY_NAMES.length);
+            header.flip();
+            channel.write(header);
+        } catch (IOException ioe) {
+            System.out.println("telemetry disabled: " + ioe);
+            return;
+        }
+
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                while (true) {
+                    if (drain(channel) == 0) {
+                        LockSupport.parkNanos(1000000);
+                    }
+                }
+            }
+        }, "telemetry-writer");
+        writer.setDaemon(true);
+        writer.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                synchronized (Telemetry.class) {
+                    drain(channel);
+                    try {
+                        channel.close();
+                    } catch (IOException ioe) {
+                    }
+                }
+                if (dropped.get() > 0) {
+                    System.out.println("telemetry: " + dropped.get() + " records dropped");
+                }
+            }
+        }));
+    }
+
+    private static final ByteBuffer batch = ByteBuffer.allocateDirect(1024 * RECORD_BYTES);
+
+    /**
+     * This method copies the published records to the file.
+     * Return the number of records written.
+     */
+    private static synchronized int drain(FileChannel channel) {
+        if (!channel.isOpen()) {
+            return 0;
+        }
+        int written = 0;
+        long t = tail;
+        while (true) {
+            batch.clear();
+            while (batch.hasRemaining()) {
+                int slot = (int) (t & (CAPACITY - 1));
+                if (published.get(slot) != t + 1) {
+                    break;
+                }
+                ByteBuffer record = ring.duplicate();
+                record.limit(slot * RECORD_BYTES + RECORD_BYTES).position(slot * RECORD_BYTES);
+                batch.put(record);
+                t++;
+            }
+            if (batch.position() == 0) {
+                break;
+            }
+            // free the slots for producers before the file I/O
+            tail = t;
+            batch.flip();
+            written += batch.remaining() / RECORD_BYTES;
+            try {
+                while (batch.hasRemaining()) {
+                    channel.write(batch);
+                }
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+                return written;
+            }
+        }
+        return written;
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * This program prints the binary records written by Telemetry as text,
+ * one line per record with the time relative to the first record.
+ *
+ * Usage: java TelemetryDecoder [telemetry.bin]
+ */
+import java.io.*;
+
+public class TelemetryDecoder {
+
+    public static void main(String[] args) throws IOException {
+        String file = args.length > 0 ? args[0] : "telemetry.bin";
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != Telemetry.FILE_MAGIC) {
+                System.out.println(file + " is not a telemetry file");
+                return;
+            }
+            int recordBytes = in.readInt();
+            in.readInt();   // number of categories
+            if (recordBytes != Telemetry.RECORD_BYTES) {
+                System.out.println("unsupported record size " + recordBytes);
+                return;
+            }
+
+            long first = -1;
+            long count = 0;
+            while (true) {
+                long time;
+                try {
+                    time = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                short category = in.readShort();
+                short event = in.readShort();
+                int id = in.readInt();
+                double v0 = in.readDouble(), v1 = in.readDouble();
+                double v2 = in.readDouble(), v3 = in.readDouble();
+                if (first < 0) {
+                    first = time;
+                }
+                System.out.println(String.format("%14.6f ms  %-10s %-14s %8d  %s",
+                        (time - first) / 1e6, name(Telemetry.CATEGORY_NAMES, category),
+                        name(Telemetry.EVENT_NAMES, event), id, values(event, v0, v1, v2, v3)));
+                count++;
+            }
+            System.out.println(count + " records");
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String name(String[] names, short i) {
+        return i >= 0 && i < names.length ? names[i] : "#" + i;
+    }
+
+    // Print only the values the event defines
+    private static String values(short event, double v0, double v1, double v2, double v3) {
+        switch (event) {
+            case Telemetry.EV_SERVER_ACTIONS:
+                return "poles " + (int) v0 + "  action[0] " + v1;
+            case Telemetry.EV_SENSOR_SENT:
+                return "poles " + (int) v0;
+            case Telemetry.EV_APPLIED_ACTION:
+                return "action " + v0;
+            case Telemetry.EV_COLLISION:
+                return "with pole " + (int) v0;
+            default:
+                return v0 + "  " + v1 + "  " + v2 + "  " + v3;
+        }
+    }
+}
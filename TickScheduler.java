@@ -0,0 +1,122 @@
+/**
+ * This class runs the periodic tasks of the client, the physics step, the
+ * sensor and the UI repaint, on one thread from one timeline. The deadlines
+ * of a task are start + k * period in System.nanoTime(), never "now +
+ * period", so a late tick does not push the later ones back and the tasks
+ * do not drift from each other or from the simulation clock. The thread
+ * parks until shortly before the next deadline; with -Dtick.spin.us=N it
+ * spins the last N us to start the task closer to its deadline than a
+ * park wakes up.
+ *
+ * The lateness of every tick is recorded as the jitter of its task. A tick
+ * that is still running when its next deadline passes is an overrun: a
+ * catch-up task then runs the ticks it missed back to back (the physics
+ * owes its steps to keep pace with real time), the others skip all but
+ * the last one (an old sample is worth nothing). A catch-up task owes at
+ * most MAX_CATCH_UP ticks (-Dtick.catchup), older ones are skipped, and
+ * while it replays missed ticks the other tasks that are due run in
+ * between, so a task that always overruns cannot starve them.
+ */
+import java.util.ArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+class TickScheduler implements Runnable {
+    // spin instead of parking for the last nanoseconds before a deadline
+    static final long SPIN_NANOS = 1000L * Long.getLong("tick.spin.us", 0);
+    // most missed ticks a catch-up task runs back to back
+    static final long MAX_CATCH_UP = Long.getLong("tick.catchup", 10);
+
+    private final ArrayList<TickTask> tasks = new ArrayList<TickTask>();
+    private volatile boolean running = true;
+    private volatile Thread thread;
+    private long start;
+
+    /**
+     * This method adds a task run every periodNanos, the first time when the
+     * scheduler starts. Tasks due at the same time run in the order they
+     * were added. Tasks must be added before the scheduler runs.
+     */
+    TickTask add(String name, long periodNanos, boolean catchUp, Runnable action) {
+        if (periodNanos <= 0) {
+            throw new IllegalArgumentException(name + ": period must be positive: " + periodNanos);
+        }
+        TickTask task = new TickTask(name, periodNanos, catchUp, action);
+        tasks.add(task);
+        return task;
+    }
+
+    public void run() {
+        thread = Thread.currentThread();
+        start = System.nanoTime();
+        for (TickTask task : tasks) {
+            task.next = start;
+        }
+        while (running && !tasks.isEmpty()) {
+            TickTask due = tasks.get(0);
+            for (TickTask task : tasks) {
+                if (task.next - due.next < 0) {
+                    due = task;
+                }
+            }
+            if (!await(due.next)) {
+                break;
+            }
+            due = between_catch_up(due);
+            due.tick();
+        }
+    }
+
+    // The task to run instead of the missed tick of a catch-up task, if one is due
+    private TickTask between_catch_up(TickTask due) {
+        long now = System.nanoTime();
+        if (!due.catchUp || now - due.next < due.period) {
+            return due;
+        }
+        for (TickTask task : tasks) {
+            if (!task.catchUp && task.next - now <= 0) {
+                return task;
+            }
+        }
+        return due;
+    }
+
+    // Wait until the deadline, return false if stopped or interrupted
+    private boolean await(long deadline) {
+        while (running) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return true;
+            }
+            if (remaining > SPIN_NANOS) {
+                LockSupport.parkNanos(this, remaining - SPIN_NANOS);
+                if (Thread.interrupted()) {
+                    running = false;
+                }
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * This method makes the scheduler return after the task it is running.
+     */
+    void stop() {
+        running = false;
+        Thread t = thread;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    // One line per task: jitter percentiles, overruns and the achieved rate
+    String summary() {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        StringBuilder sb = new StringBuilder();
+        for (TickTask task : tasks) {
+            sb.append(task.summary(seconds)).append('\n');
+        }
+        return sb.toString();
+    }
+}
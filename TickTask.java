@@ -0,0 +1,47 @@
+/**
+ * This class is one periodic task of a TickScheduler and its metrics.
+ */
+class TickTask {
+    final String name;
+    final long period;
+    final boolean catchUp;
+    private final Runnable action;
+    long next;                 // deadline of the next tick
+    // how late the ticks started, in nanoseconds
+    final LatencyHistogram jitter;
+    long ticks = 0;
+    long overruns = 0;         // ticks that ended after the next deadline
+    long skipped = 0;          // deadlines dropped after an overrun or beyond the catch-up limit
+
+    TickTask(String name, long period, boolean catchUp, Runnable action) {
+        this.name = name;
+        this.period = period;
+        this.catchUp = catchUp;
+        this.action = action;
+        this.jitter = new LatencyHistogram("tick." + name + ".jitter");
+    }
+
+    void tick() {
+        jitter.record(System.nanoTime() - next);
+        ticks++;
+        action.run();
+        next += period;
+        long behind = System.nanoTime() - next;
+        if (behind >= 0) {
+            overruns++;
+            // keep the last deadline that passed, late, and drop the others,
+            // or for a catch-up task the last MAX_CATCH_UP of them
+            long missed = behind / period;
+            long drop = catchUp ? missed + 1 - TickScheduler.MAX_CATCH_UP : missed;
+            if (drop > 0) {
+                skipped += drop;
+                next += drop * period;
+            }
+        }
+    }
+
+    String summary(double seconds) {
+        return String.format("%s  period %.1f us, %.1f ticks/s (%.1f wanted), %d overruns, %d skipped",
+                jitter.summary(), period / 1e3, ticks / seconds, 1e9 / period, overruns, skipped);
+    }
+}
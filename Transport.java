@@ -0,0 +1,27 @@
+/**
+ * This interface carries frames between the client (Sensor and Actuator)
+ * and a blocking control session (PoleServer_handler). StreamTransport
+ * writes them on a socket; LoopbackTransport hands them to the other end
+ * in the same JVM through a bounded lock-free queue, without encoding
+ * them and without sockets, for tests, sweeps and measuring the cost of
+ * the controller and the physics on their own.
+ */
+import java.io.*;
+
+interface Transport {
+
+    /**
+     * This method sends one frame of poles * Frame.values_per_pole(type)
+     * values. It may be called from several threads.
+     */
+    void send(byte type, double[] values, int poles, long seq, long[] stamps) throws IOException;
+
+    /**
+     * This method blocks until a frame has been received and stores it into
+     * frame. Only one thread may receive.
+     * @throws EOFException once the other end has closed
+     */
+    void receive(Frame frame) throws IOException;
+
+    void close() throws IOException;
+}
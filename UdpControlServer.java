@@ -0,0 +1,169 @@
+/**
+ * This class serves the UDP clients. One thread receives the datagrams of
+ * all the clients and hands each frame, unless it is stale, to the blocking
+ * PoleServer_handler session of its sender through the session's frame
+ * queue; the sessions send their replies on the shared socket.
+ *
+ * Only the first frames of a client, a CONTROLLER frame or a sensor frame
+ * within the first SequenceFilter.WINDOW sequence numbers, start a session;
+ * anything else from an unknown peer is a leftover of a session that is
+ * gone and is dropped. A peer whose session just closed is ignored for
+ * TOMBSTONE_MS, so frames overtaken by its BYE do not start a new one. A
+ * session that has received nothing for IDLE_MS (-Dudp.idle, in ms) is
+ * closed, as if the client had said bye.
+ */
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+
+class UdpControlServer {
+    static final int IDLE_MS = Integer.parseInt(System.getProperty("udp.idle", "10000"));
+    static final int TOMBSTONE_MS = 2000;
+    // how often the idle sessions and old tombstones are looked for
+    private static final int SWEEP_MS = 1000;
+
+    private final DatagramSocket socket;
+    private final ConcurrentHashMap<SocketAddress, Session> sessions =
+            new ConcurrentHashMap<SocketAddress, Session>();
+    // peers whose session closed, and when, in System.nanoTime()
+    private final ConcurrentHashMap<SocketAddress, Long> closed =
+            new ConcurrentHashMap<SocketAddress, Long>();
+    private long lastSweep = System.nanoTime();
+
+    UdpControlServer(int port) throws IOException {
+        socket = new DatagramSocket(port);
+        socket.setSoTimeout(SWEEP_MS);
+    }
+
+    void serve() throws IOException {
+        System.out.println("Waiting for datagrams on port " + socket.getLocalPort());
+        byte[] bytes = new byte[UdpTransport.MAX_DATAGRAM];
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        DatagramPacket packet = new DatagramPacket(bytes, bytes.length);
+        Frame frame = new Frame(4);
+        while (true) {
+            try {
+                socket.receive(packet);
+            } catch (SocketTimeoutException e) {
+                sweep();
+                continue;
+            }
+            buf.clear().limit(packet.getLength());
+            // anyone can send a datagram, a bad one is dropped and the server goes on
+            try {
+                if (frame.decode(buf)) {
+                    dispatch(packet.getSocketAddress(), frame);
+                }
+            } catch (IOException | RuntimeException e) {
+                System.out.println("bad datagram from " + packet.getSocketAddress() + ": " + e);
+            }
+            if (System.nanoTime() - lastSweep >= SWEEP_MS * 1000000L) {
+                sweep();
+            }
+        }
+    }
+
+    // Hand a frame to the session of its sender, starting one if needed
+    private void dispatch(SocketAddress peer, Frame frame) {
+        Session session = sessions.get(peer);
+        if (session == null) {
+            if (!opens_session(frame) || closed.containsKey(peer)) {
+                return;
+            }
+            System.out.println("\nnew client " + peer + "\n");
+            Metrics.ACCEPTED.increment();
+            session = new Session(peer);
+            sessions.put(peer, session);
+            new PoleServer_handler(session);
+        }
+        session.deliver(frame);
+    }
+
+    // Whether a frame from an unknown peer is one a new client starts with
+    static boolean opens_session(Frame frame) {
+        if (frame.type == Frame.CONTROLLER) {
+            return true;
+        }
+        return (frame.type == Frame.SENSOR || frame.type == Frame.SENSOR_DELTA)
+                && frame.seq > 0 && frame.seq <= SequenceFilter.WINDOW;
+    }
+
+    // Close the sessions that have been idle too long and forget old tombstones
+    private void sweep() {
+        long now = System.nanoTime();
+        lastSweep = now;
+        for (Session session : sessions.values()) {
+            if (now - session.lastHeard >= IDLE_MS * 1000000L) {
+                System.out.println("udp " + session.peer + " idle for " + IDLE_MS + " ms, closing the session");
+                session.expire();
+            }
+        }
+        for (Iterator<Long> at = closed.values().iterator(); at.hasNext(); ) {
+            if (now - at.next() >= TOMBSTONE_MS * 1000000L) {
+                at.remove();
+            }
+        }
+    }
+
+    /**
+     * This class is the transport of one client session: frames are taken
+     * from a queue filled by the receiving thread and sent as datagrams.
+     */
+    class Session implements Transport {
+        private final SocketAddress peer;
+        private final FrameRing inbound = new FrameRing(LoopbackTransport.DEFAULT_CAPACITY);
+        private final byte[] outBytes = new byte[UdpTransport.MAX_DATAGRAM];
+        private final ByteBuffer outBuf = ByteBuffer.wrap(outBytes);
+        private final DatagramPacket outPacket;
+        private final SplittableRandom random = new SplittableRandom();
+        final SequenceFilter filter = new SequenceFilter();
+        private volatile long dropped = 0;
+        // when the last frame was received, only used by the receiving thread
+        private long lastHeard = System.nanoTime();
+
+        Session(SocketAddress peer) {
+            this.peer = peer;
+            outPacket = new DatagramPacket(outBytes, 0, peer);
+        }
+
+        // A frame the session is too busy to queue is dropped, as by the network
+        void deliver(Frame frame) {
+            lastHeard = System.nanoTime();
+            if (filter.accept(frame)
+                    && !inbound.offer(frame.type, frame.values, frame.poles, frame.seq, frame.stamps)) {
+                dropped++;
+            }
+        }
+
+        public void send(byte type, double[] values, int poles, long seq, long[] stamps) throws IOException {
+            synchronized (outBuf) {
+                outPacket.setLength(UdpTransport.encode(outBuf, type, values, poles, seq, stamps));
+                if (!UdpTransport.lose(type, random)) {
+                    socket.send(outPacket);
+                }
+            }
+        }
+
+        public void receive(Frame frame) throws IOException {
+            inbound.take(frame);
+        }
+
+        // Stop taking frames for this session, its handler ends once the queue is empty
+        void expire() {
+            closed.put(peer, System.nanoTime());
+            sessions.remove(peer, this);
+            inbound.close();
+        }
+
+        public void close() {
+            expire();
+            System.out.print(filter.summary("udp " + peer));
+            if (dropped > 0) {
+                System.out.println(dropped + " frames dropped, the session queue was full");
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * This class sends the frames as UDP datagrams, one frame per datagram.
+ * Unlike TCP, a delayed or lost frame does not hold up the later ones: the
+ * frames carry their sequence numbers, and a frame that arrives after a
+ * newer one (late, reordered or duplicated) is dropped, so the newest
+ * sample and the newest actions are the ones used. Loss and reordering
+ * are counted by a SequenceFilter on each receiving side.
+ *
+ * The client end (this class) talks to a UdpControlServer. A receive
+ * gives up after the timeout, so a lost frame costs the control loop one
+ * sample rather than blocking it. With -Dudp.loss=<fraction> a share of
+ * the data frames sent is dropped on purpose, to test the loop on a lossy
+ * network on one host.
+ */
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.SplittableRandom;
+
+class UdpTransport implements Transport {
+    static final int MAX_DATAGRAM = 65507;
+    static final int DEFAULT_TIMEOUT_MS = 100;
+    // share of the data frames sent that are dropped, for tests
+    static final double LOSS = Double.parseDouble(System.getProperty("udp.loss", "0"));
+
+    private final DatagramSocket socket;
+    private final byte[] outBytes = new byte[MAX_DATAGRAM];
+    private final ByteBuffer outBuf = ByteBuffer.wrap(outBytes);
+    private final DatagramPacket outPacket;
+    private final byte[] inBytes = new byte[MAX_DATAGRAM];
+    private final ByteBuffer inBuf = ByteBuffer.wrap(inBytes);
+    private final DatagramPacket inPacket = new DatagramPacket(inBytes, inBytes.length);
+    private final SplittableRandom random = new SplittableRandom();
+    final SequenceFilter filter = new SequenceFilter();
+
+    UdpTransport(String host, int port, int timeoutMs) throws IOException {
+        socket = new DatagramSocket();
+        socket.connect(new InetSocketAddress(host, port));
+        socket.setSoTimeout(timeoutMs);
+        outPacket = new DatagramPacket(outBytes, 0);
+    }
+
+    public void send(byte type, double[] values, int poles, long seq, long[] stamps) throws IOException {
+        synchronized (outBuf) {
+            outPacket.setLength(encode(outBuf, type, values, poles, seq, stamps));
+            if (!lose(type, random)) {
+                socket.send(outPacket);
+            }
+        }
+    }
+
+    /**
+     * This method blocks until a frame newer than all the frames received
+     * so far, or a control frame, has been received.
+     * @throws SocketTimeoutException if none arrived within the timeout
+     */
+    public void receive(Frame frame) throws IOException {
+        while (true) {
+            socket.receive(inPacket);
+            inBuf.clear().limit(inPacket.getLength());
+            if (!frame.decode(inBuf)) {
+                throw new IOException("truncated datagram of " + inPacket.getLength() + " bytes");
+            }
+            if (filter.accept(frame)) {
+                return;
+            }
+        }
+    }
+
+    public void close() {
+        socket.close();
+    }
+
+    // Whether to drop a datagram to simulate loss (-Dudp.loss), never a control frame
+    static boolean lose(byte type, SplittableRandom random) {
+        return LOSS > 0 && type != Frame.BYE && type != Frame.CONTROLLER && random.nextDouble() < LOSS;
+    }
+
+    /**
+     * This method encodes a frame into buf from its start.
+     * Return the length of the datagram.
+     * @throws IOException if the frame does not fit into one datagram
+     */
+    static int encode(ByteBuffer buf, byte type, double[] values, int poles, long seq, long[] stamps)
+            throws IOException {
+        int length = Frame.frame_bytes(type, poles);
+        if (length > buf.capacity()) {
+            throw new IOException(poles + " poles do not fit into a datagram");
+        }
+        buf.clear();
+        Frame.encode(buf, type, values, poles, seq, stamps);
+        return length;
+    }
+}
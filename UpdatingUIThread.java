@@ -16,6 +16,8 @@ public class UpdatingUIThread implements Runnable{
     //for double-buffering
     Graphics offGraphics;
 
+    // last consistent state of the poles drawn by this thread
+    StateSnapshot snapshot;
     boolean prev_pole_in_good_state = true;
     long failAt_phy;
     double failAt_sim;
@@ -30,25 +32,27 @@ public class UpdatingUIThread implements Runnable{
         this.physics = physics;
         this.updatingPeriod = updatingPeriod;
         this.simConfigInfo = simConfigInfo;
+        this.snapshot = new StateSnapshot(physics.NUM_POLES);
     }
 
     public void run(){
-        long startTime = System.currentTimeMillis();
-
-        while(true){
-            //Display it.
-            applet.repaint();
-
-            //Delay depending on how far we are behind.
-            try {
-                startTime += updatingPeriod;
-                Thread.sleep(Math.max(0,
-                        startTime - System.currentTimeMillis()));
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-                break;
+        TickScheduler scheduler = new TickScheduler();
+        schedule(scheduler);
+        scheduler.run();
+    }
+
+    /**
+     * This method adds the repaints to a scheduler, one every updating
+     * period (in ms). Frames that are due while the scheduler is busy are
+     * skipped.
+     */
+    TickTask schedule(TickScheduler scheduler) {
+        return scheduler.add("ui", updatingPeriod * 1000000L, false, new Runnable() {
+            public void run() {
+                //Display it.
+                applet.repaint();
             }
-        }
+        });
     }
 
 
@@ -63,15 +67,24 @@ public class UpdatingUIThread implements Runnable{
         Color arrowColor = new Color(255, 255, 0);
         Color trackColor = new Color(100, 100, 50);
 
+        boolean changed = physics.get_publisher().read(snapshot);
+
         //Create the offscreen graphics context, if no good one exists.
         if ((offGraphics == null)
                 || (d.width != offDimension.width)
                 || (d.height != offDimension.height)) {
+            changed = true;
             offDimension = d;
             offImage = applet.createImage(d.width, d.height);
             offGraphics = offImage.getGraphics();
         }
 
+        //Nothing has been simulated since the last frame, repaint it.
+        if (!changed) {
+            gr.drawImage(offImage, 0, 0, applet);
+            return;
+        }
+
         //Erase the previous image.
         offGraphics.setColor(applet.getBackground());
         offGraphics.fillRect(0, 0, d.width, d.height);
@@ -97,7 +110,7 @@ public class UpdatingUIThread implements Runnable{
         //offGraphics.drawString(msg, 20, d.height - 40);
 
         msg = "Phyical Timer = " + String.format("%.03f", (double) (physics.get_phyTime()/1000.0))
-                + " secs   Sim. Timer = "+ String.format("%.03f", physics.get_simTime())+" secs" ;
+                + " secs   Sim. Timer = "+ String.format("%.03f", snapshot.simTime)+" secs" ;
         offGraphics.drawString(msg, 20, d.height - 60);
 
         // msg = "pos = " + (physics.get_pos()) + " posD = "+ physics.get_posDot()+" posDD = "+physics.get_posDDot() ;
@@ -106,12 +119,12 @@ public class UpdatingUIThread implements Runnable{
         // msg = "ang = " + (physics.get_angle()) + " angD = "+ physics.get_angleDot()+" angDD = "+physics.get_angleDDot() ;
         // offGraphics.drawString(msg, 20, d.height - 120);
 
-        boolean cur_pole_in_good_state = physics.pole_in_good_state;
+        boolean cur_pole_in_good_state = snapshot.pole_in_good_state;
         if (!cur_pole_in_good_state) {
           // found that the pole has fallen down at this moment
           if(prev_pole_in_good_state){
               this.failAt_phy = physics.get_phyTime();
-              this.failAt_sim = physics.get_simTime();
+              this.failAt_sim = snapshot.simTime;
           }
           msg = "Failed at time = " + String.format("%.03f", (double) (this.failAt_phy/1000.0)) +
                   "  secs  sim. time = "+ String.format("%.03f", this.failAt_sim) +" secs";
@@ -129,31 +142,33 @@ public class UpdatingUIThread implements Runnable{
 
 
         // Draw each pendulums
-        Pendulum[] pendulums = physics.get_pendulums();
-        for(int i = 0; i < pendulums.length; i++) {
-            Pendulum p = pendulums[i];
+        PoleParams params = physics.get_store().params;
+        for(int i = 0; i < snapshot.size; i++) {
+            double pos = snapshot.pos[i];
+            double angle = snapshot.angle[i];
+            double action = snapshot.action[i];
 
                
             // physics.update_ppos(physics.get_pos() % (2.5));
     
             //Draw cart.
             offGraphics.setColor(cartColor);
-            offGraphics.fillRect(pixX(d, p.get_pos() - p.cartWidth/2), pixY(d, 0),
-                                 pixDX(d, p.cartWidth), pixDY(d, -0.2));
+            offGraphics.fillRect(pixX(d, pos - params.cartWidth/2), pixY(d, 0),
+                                 pixDX(d, params.cartWidth), pixDY(d, -0.2));
     
             //Draw pole.
             //    offGraphics.setColor(cartColor);
-            offGraphics.drawLine(pixX(d, p.get_pos()), pixY(d, 0),
-                    pixX(d, p.get_pos() + Math.sin(p.get_angle()) * p.poleLength),
-                    pixY(d, p.poleLength * Math.cos(p.get_angle())));
+            offGraphics.drawLine(pixX(d, pos), pixY(d, 0),
+                    pixX(d, pos + Math.sin(angle) * params.poleLength),
+                    pixY(d, params.poleLength * Math.cos(angle)));
     
             //Draw action arrow.
-            if (p.get_action() != 0) {
-                int signAction = (p.get_action() > 0 ? 1 : (p.get_action() < 0) ? -1 : 0);
-                int tipx = pixX(d, p.get_pos() + 0.2 * signAction);
+            if (action != 0) {
+                int signAction = (action > 0 ? 1 : (action < 0) ? -1 : 0);
+                int tipx = pixX(d, pos + 0.2 * signAction);
                 int tipy = pixY(d, -0.1);
                 offGraphics.setColor(arrowColor);
-                offGraphics.drawLine(pixX(d, p.get_pos()), pixY(d, -0.1), tipx, tipy);
+                offGraphics.drawLine(pixX(d, pos), pixY(d, -0.1), tipx, tipy);
                 offGraphics.drawLine(tipx, tipy, tipx - 4 * signAction, tipy + 4);
                 offGraphics.drawLine(tipx, tipy, tipx - 4 * signAction, tipy - 4);
             }
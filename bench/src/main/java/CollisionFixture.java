@@ -0,0 +1,28 @@
+/**
+ * Benchmark workload: the collision sweep over carts that move a little
+ * between invocations, as they do between simulation steps.
+ */
+public class CollisionFixture implements bench.Fixture {
+    private double[] pos;
+    private byte[] state;
+    private CollisionDetector detector;
+    private int step;
+
+    public void setup(int poles, double tau) {
+        pos = new double[poles];
+        state = new byte[poles];
+        for (int i = 0; i < poles; i++) {
+            pos[i] = 0.5 * i;
+        }
+        detector = new CollisionDetector(pos);
+    }
+
+    public double run() {
+        // jiggle the carts without letting them overlap
+        double d = (step++ & 1) == 0 ? 0.01 : -0.01;
+        for (int i = 0; i < pos.length; i += 2) {
+            pos[i] += d;
+        }
+        return detector.detect(pos, 0.4, state);
+    }
+}
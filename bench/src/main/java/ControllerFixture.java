@@ -0,0 +1,52 @@
+/**
+ * Benchmark workload: a controller evaluated on the sensor data of every
+ * pole. The nested classes select the controller.
+ */
+public class ControllerFixture implements bench.Fixture {
+    private final Controller controller;
+    private double[] data;
+    private double[] actions;
+    private int poles;
+
+    ControllerFixture(int controllerId) {
+        controller = Controllers.create(controllerId);
+    }
+
+    public static class Ladder extends ControllerFixture {
+        public Ladder() {
+            super(Controllers.LADDER);
+        }
+    }
+
+    public static class Schedule extends ControllerFixture {
+        public Schedule() {
+            super(Controllers.SCHEDULE);
+        }
+    }
+
+    public static class Lqr extends ControllerFixture {
+        public Lqr() {
+            super(Controllers.LQR);
+        }
+    }
+
+    public void setup(int poles, double tau) {
+        this.poles = poles;
+        data = new double[4 * poles];
+        actions = new double[poles];
+        java.util.Random random = new java.util.Random(42);
+        for (int i = 0; i < poles; i++) {
+            data[i*4+0] = random.nextGaussian() * 0.3;
+            data[i*4+1] = random.nextGaussian() * 0.5;
+            data[i*4+2] = random.nextGaussian();
+            data[i*4+3] = random.nextGaussian() * 0.5;
+        }
+        // controllers that depend on the number of poles set up on the first call
+        controller.compute(data, poles, actions);
+    }
+
+    public double run() {
+        controller.compute(data, poles, actions);
+        return actions[poles - 1];
+    }
+}
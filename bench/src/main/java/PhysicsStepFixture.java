@@ -0,0 +1,30 @@
+/**
+ * Benchmark workload: one Physics.step() over balanced poles spaced along
+ * a long track. Poles that fail are put back to their initial state so
+ * every invocation steps all of them.
+ */
+public class PhysicsStepFixture implements bench.Fixture {
+    private Physics physics;
+
+    public void setup(int poles, double tau) {
+        double[] init_pos = new double[poles];
+        for (int i = 0; i < poles; i++) {
+            init_pos[i] = i - (poles - 1) / 2.0;
+        }
+        physics = new Physics(tau, 0, init_pos, new PoleParams());
+        physics.trackLimit = poles / 2.0 + 1;
+        java.util.Arrays.fill(physics.get_store().action, 0.);
+    }
+
+    public double run() {
+        physics.step();
+        if (physics.get_failedPoles() > 0) {
+            PendulumStore store = physics.get_store();
+            for (int i = 0; i < store.size; i++) {
+                store.reset_pole(i);
+                store.state[i] = PendulumStore.NORMAL;
+            }
+        }
+        return physics.get_simTime();
+    }
+}
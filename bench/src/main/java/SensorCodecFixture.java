@@ -0,0 +1,32 @@
+/**
+ * Benchmark workload: encoding a sensor frame into a ByteBuffer and
+ * decoding it again.
+ */
+public class SensorCodecFixture implements bench.Fixture {
+    private double[] data;
+    private int poles;
+    private java.nio.ByteBuffer buf;
+    private Frame frame;
+
+    public void setup(int poles, double tau) {
+        this.poles = poles;
+        data = new double[4 * poles];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = 0.001 * i;
+        }
+        buf = java.nio.ByteBuffer.allocate(Frame.frame_bytes(Frame.SENSOR, poles));
+        frame = new Frame(4 * poles);
+    }
+
+    public double run() {
+        buf.clear();
+        Frame.encode(buf, Frame.SENSOR, data, poles);
+        buf.flip();
+        try {
+            frame.decode(buf);
+        } catch (java.io.IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return frame.values[0];
+    }
+}
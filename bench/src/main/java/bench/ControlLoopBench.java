@@ -0,0 +1,145 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks of the hot paths of the control loop. Run them with
+ *   java -jar target/benchmarks.jar -prof gc
+ * to get ns/op together with the allocation rate and bytes/op.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ControlLoopBench {
+
+    @State(Scope.Thread)
+    public static class Controller {
+        @Param({"1", "100", "10000"})
+        int poles;
+
+        @Param({"ladder", "schedule"})
+        String controller;
+
+        Fixture fixture;
+
+        @Setup
+        public void setup() {
+            fixture = Fixture.create(controller.equals("ladder")
+                    ? "ControllerFixture$Ladder" : "ControllerFixture$Schedule");
+            fixture.setup(poles, 0.01);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class CoupledController {
+        @Param({"10", "100", "500"})
+        int poles;
+
+        Fixture fixture;
+
+        @Setup
+        public void setup() {
+            fixture = Fixture.create("ControllerFixture$Lqr");
+            fixture.setup(poles, 0.01);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class PhysicsStep {
+        @Param({"1", "100", "10000"})
+        int poles;
+
+        @Param({"0.001", "0.01"})
+        double tau;
+
+        Fixture fixture;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            fixture = Fixture.create("PhysicsStepFixture");
+            fixture.setup(poles, tau);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Collisions {
+        @Param({"100", "10000"})
+        int poles;
+
+        Fixture fixture;
+
+        @Setup
+        public void setup() {
+            fixture = Fixture.create("CollisionFixture");
+            fixture.setup(poles, 0.01);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class SensorCodec {
+        @Param({"1", "100", "10000"})
+        int poles;
+
+        Fixture fixture;
+
+        @Setup
+        public void setup() {
+            fixture = Fixture.create("SensorCodecFixture");
+            fixture.setup(poles, 0.01);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ActionCodec {
+        @Param({"1", "100", "10000"})
+        int poles;
+
+        Fixture fixture;
+
+        @Setup
+        public void setup() {
+            fixture = Fixture.create("ActionCodecFixture");
+            fixture.setup(poles, 0.01);
+        }
+    }
+
+    // a Controller over the sensor data of every pole
+    @Benchmark
+    public double controller(Controller s) {
+        return s.fixture.run();
+    }
+
+    // the coupled LQR controller, one dense gain matrix product
+    @Benchmark
+    public double coupledController(CoupledController s) {
+        return s.fixture.run();
+    }
+
+    // Physics.step(): integration, collision sweep and snapshot publication
+    @Benchmark
+    public double physicsStep(PhysicsStep s) {
+        return s.fixture.run();
+    }
+
+    // CollisionDetector.detect() over slowly moving carts
+    @Benchmark
+    public double collisionCheck(Collisions s) {
+        return s.fixture.run();
+    }
+
+    // encode + decode of one sensor frame
+    @Benchmark
+    public double sensorFrameRoundTrip(SensorCodec s) {
+        return s.fixture.run();
+    }
+
+    // encode + decode of one action frame
+    @Benchmark
+    public double actionFrameRoundTrip(ActionCodec s) {
+        return s.fixture.run();
+    }
+}
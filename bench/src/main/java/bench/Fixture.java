@@ -0,0 +1,30 @@
+package bench;
+
+/**
+ * A workload measured by the benchmarks. JMH refuses benchmark classes in
+ * the default package, and classes in a named package cannot refer to the
+ * simulator classes that live in the default package, so the workloads are
+ * implemented next to the simulator (the *Fixture classes in the default
+ * package of this module) and reached through this interface. Each
+ * benchmark only ever sees one implementation, so the call is inlined.
+ */
+public interface Fixture {
+
+    /**
+     * Prepare the workload for the given number of poles and step size.
+     */
+    void setup(int poles, double tau);
+
+    /**
+     * Run the measured operation once and return a value for the blackhole.
+     */
+    double run();
+
+    static Fixture create(String className) {
+        try {
+            return (Fixture) Class.forName(className).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("cannot create fixture " + className, e);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * This class steps a range of poles with explicit Euler using the
+ * jdk.incubator.vector API, processing DoubleVector.SPECIES_PREFERRED.length()
+ * poles per instruction over the PendulumStore columns. Failed poles are
+ * masked out; the tail of the range and the rare lanes that fail during the
+ * step are handled with scalar code. Results can differ from the scalar
+ * kernel in the last bits because the vector sin/cos are not Math.sin/cos.
+ *
+ * It lives outside the main source set because it needs the incubator
+ * module to compile and run:
+ *   make simd
+ *   java --add-modules jdk.incubator.vector VectorDynamics [poles] [steps]
+ * The main prints the throughput of the scalar and vector kernels in
+ * poles*steps/sec.
+ */
+import jdk.incubator.vector.*;
+
+public class VectorDynamics implements BatchKernel {
+    private static final VectorSpecies<Double> D = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> B = ByteVector.SPECIES_64;
+
+    private final BatchDynamics scalar = new BatchDynamics();
+
+    public int step(PendulumStore st, double tau, double trackLimit, int lo, int hi) {
+        PoleParams p = st.params;
+        double[] pos = st.pos, posDot = st.posDot, angle = st.angle, angleDot = st.angleDot;
+        double[] prevAngle = st.prevAngle, angleDDot = st.angleDDot, posDDot = st.posDDot;
+        double[] action = st.action;
+        byte[] state = st.state;
+        double halfWidth = p.cartWidth / 2;
+        double right = trackLimit - halfWidth;
+        double left = -trackLimit + halfWidth;
+        double denomScale = p.poleMass / p.totalMass;
+        double halfPi = Math.PI / 2;
+
+        int lanes = D.length();
+        int failed = 0;
+        int i = lo;
+        // B loads 8 state bytes at a time, so stop early enough to stay in bounds
+        for (; i + Math.max(lanes, B.length()) <= hi; i += lanes) {
+            VectorMask<Double> normal = ByteVector.fromArray(B, state, i)
+                    .convertShape(VectorOperators.B2D, D, 0)
+                    .reinterpretAsDoubles()
+                    .compare(VectorOperators.EQ, PendulumStore.NORMAL);
+            if (!normal.anyTrue()) {
+                failed += lanes;
+                continue;
+            }
+
+            DoubleVector a = DoubleVector.fromArray(D, angle, i);
+            DoubleVector ad = DoubleVector.fromArray(D, angleDot, i);
+            DoubleVector x = DoubleVector.fromArray(D, pos, i);
+            DoubleVector xd = DoubleVector.fromArray(D, posDot, i);
+            DoubleVector force = DoubleVector.fromArray(D, action, i).mul(p.forceMag);
+
+            DoubleVector sinangle = a.lanewise(VectorOperators.SIN);
+            DoubleVector cosangle = a.lanewise(VectorOperators.COS);
+            DoubleVector friction = DoubleVector.broadcast(D, p.fricCart)
+                    .blend(-p.fricCart, xd.compare(VectorOperators.LT, 0.));
+            DoubleVector common = force.add(ad.mul(ad).mul(sinangle).mul(p.poleMassLength))
+                    .sub(friction).div(p.totalMass);
+            DoubleVector add = sinangle.mul(9.8).sub(cosangle.mul(common))
+                    .sub(ad.mul(p.fricPole / p.poleMassLength))
+                    .div(cosangle.mul(cosangle).mul(-denomScale).add(p.fourthirds).mul(p.halfPole));
+            DoubleVector xdd = common.sub(add.mul(cosangle).mul(p.poleMassLength / p.totalMass));
+
+            add.intoArray(angleDDot, i, normal);
+            xdd.intoArray(posDDot, i, normal);
+            a.intoArray(prevAngle, i, normal);
+
+            DoubleVector nx = x.add(xd.mul(tau));
+            DoubleVector nxd = xd.add(xdd.mul(tau));
+            DoubleVector na = a.add(ad.mul(tau));
+            DoubleVector nad = ad.add(add.mul(tau));
+
+            VectorMask<Double> fell = na.abs().compare(VectorOperators.GT, halfPi).and(normal);
+            VectorMask<Double> hitRight = nx.compare(VectorOperators.GT, right).and(normal);
+            VectorMask<Double> hitLeft = nx.compare(VectorOperators.LT, left).and(normal);
+            DoubleVector upright = DoubleVector.broadcast(D, halfPi)
+                    .blend(-halfPi, na.compare(VectorOperators.LT, 0.));
+            na = na.blend(upright, fell);
+            nx = nx.blend(right, hitRight).blend(left, hitLeft);
+
+            nx.intoArray(pos, i, normal);
+            nxd.intoArray(posDot, i, normal);
+            na.intoArray(angle, i, normal);
+            nad.intoArray(angleDot, i, normal);
+
+            VectorMask<Double> failing = fell.or(hitRight).or(hitLeft);
+            if (failing.anyTrue()) {
+                for (int k = 0; k < lanes; k++) {
+                    if (failing.laneIsSet(k)) {
+                        state[i + k] = PendulumStore.FAILED;
+                    }
+                }
+            }
+            failed += lanes - normal.andNot(failing).trueCount();
+        }
+        return failed + scalar.step(st, tau, trackLimit, i, hi);
+    }
+
+    public static void main(String[] args) {
+        int poles = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        System.out.println("vector species: " + D);
+        for (int round = 0; round < 3; round++) {
+            double s = throughput(new BatchDynamics(), poles, steps);
+            double v = throughput(new VectorDynamics(), poles, steps);
+            System.out.println(String.format("%d poles: scalar %.3e poles*steps/sec, vector %.3e poles*steps/sec (%.2fx)",
+                    poles, s, v, v / s));
+        }
+    }
+
+    private static double throughput(BatchKernel kernel, int poles, int steps) {
+        double[] init_pos = new double[poles];
+        for (int i = 0; i < poles; i++) {
+            init_pos[i] = i - (poles - 1) / 2.0;
+        }
+        PendulumStore st = new PendulumStore(init_pos, new PoleParams());
+        // keep the poles balanced long enough to measure them all
+        for (int i = 0; i < poles; i++) {
+            st.action[i] = 0.;
+        }
+        double trackLimit = poles / 2.0 + 1;
+
+        long start = System.nanoTime();
+        for (int s = 0; s < steps; s++) {
+            kernel.step(st, 0.001, trackLimit, 0, poles);
+        }
+        return (double) poles * steps / ((System.nanoTime() - start) / 1e9);
+    }
+}